@@ -31,6 +31,7 @@ function App() {
   const [selectedFile, setSelectedFile] = useState<FileInfo | null>(null);
   const [uploadedFiles, setUploadedFiles] = useState<FileInfo[]>([]);
   const [viewingFile, setViewingFile] = useState<FileInfo | null>(null);
+  const [pdfSourceUri, setPdfSourceUri] = useState('');
   const [viewingEpub, setViewingEpub] = useState<FileInfo | null>(null);
   const [currentPage, setCurrentPage] = useState(1);
   const pageChangeTimerRef = React.useRef<ReturnType<typeof setTimeout> | null>(null);
@@ -136,11 +137,8 @@ function App() {
               style: 'destructive',
               onPress: async () => {
                 try {
-                  // Delete old file if it exists
-                  const oldFileExists = await RNFS.exists(destPath);
-                  if (oldFileExists) {
-                    await RNFS.unlink(destPath);
-                  }
+                  // Delete old file (and its index) if it exists
+                  await DocumentPicker.deleteDocument(destPath);
                   
                   // Copy new file
                   await RNFS.copyFile(selectedFile.uri, destPath);
@@ -233,6 +231,13 @@ function App() {
       // Load saved page for this PDF
       const savedPage = await loadPdfPage(file.uri);
       setCurrentPage(savedPage);
+      try {
+        // Encrypted library files are served decrypted through a content:// URI
+        setPdfSourceUri(await DocumentPicker.getReadableUri(file.uri));
+      } catch (error) {
+        console.error('Error resolving PDF URI:', error);
+        setPdfSourceUri(file.uri);
+      }
       setViewingFile(file);
     } else {
       // Open EPUB with native reader (now has TTS!)
@@ -255,6 +260,7 @@ function App() {
       await savePdfPage(viewingFile.uri, currentPage);
     }
     setViewingFile(null);
+    setPdfSourceUri('');
     setCurrentPage(1);
   };
 
@@ -305,12 +311,8 @@ function App() {
           style: 'destructive',
           onPress: async () => {
             try {
-              // Delete physical file
-              const filePath = file.uri.replace('file://', '');
-              const fileExists = await RNFS.exists(filePath);
-              if (fileExists) {
-                await RNFS.unlink(filePath);
-              }
+              // Delete physical file and its index
+              await DocumentPicker.deleteDocument(file.uri);
 
               // Remove from list
               const updatedFiles = uploadedFiles.filter((_, i) => i !== index);
@@ -428,7 +430,7 @@ function App() {
           </View>
 
           <Pdf
-            source={{ uri: viewingFile?.uri || '' }}
+            source={{ uri: pdfSourceUri }}
             page={currentPage}
             style={styles.pdfViewer}
             trustAllCerts={false}
@@ -0,0 +1,253 @@
+package com.fileuploadapp;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only ZIP archive over any {@link SeekableByteChannel}, so books can be read
+ * lazily from encrypted storage as well as from plain files. Only the central directory
+ * is read up front; entry data is fetched on demand and each entry stream has its own
+ * {@link Inflater}, so several entries can be read at once.
+ */
+public class ChannelZipFile implements Closeable {
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIG = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_MIN_SIZE = 22;
+    // Stored in place of a size or offset whose real value is in a ZIP64 extra field
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    private final SeekableByteChannel channel;
+    private final Map<String, Entry> entries;
+    private final boolean ownsChannel;
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        public final long compressedSize;
+        public final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    public ChannelZipFile(SeekableByteChannel channel) throws IOException {
+        this(channel, -1, -1);
+    }
+
+    /**
+     * Opens an archive whose central directory location is already known, e.g. from
+     * an {@link EpubIndex}, which skips searching for the end record.
+     */
+    public ChannelZipFile(SeekableByteChannel channel, long centralDirectoryOffset, long centralDirectorySize)
+            throws IOException {
+        this.channel = channel;
+        this.entries = new LinkedHashMap<>();
+        this.ownsChannel = true;
+        if (centralDirectoryOffset < 0 || centralDirectorySize < 0
+                || centralDirectoryOffset + centralDirectorySize > channel.size()) {
+            ByteBuffer end = findEndOfCentralDirectory();
+            centralDirectorySize = end.getInt(12) & 0xFFFFFFFFL;
+            centralDirectoryOffset = end.getInt(16) & 0xFFFFFFFFL;
+        }
+        readCentralDirectory(centralDirectoryOffset, centralDirectorySize);
+    }
+
+    private ChannelZipFile(ChannelZipFile source, SeekableByteChannel channel) {
+        this.channel = channel;
+        this.entries = source.entries;
+        this.ownsChannel = false;
+    }
+
+    /**
+     * Returns a view of this archive that reads entry data through {@code channel}, e.g.
+     * a separate reader for each worker thread, without parsing the central directory
+     * again. Closing the view does not close {@code channel}; its owner does.
+     */
+    public ChannelZipFile withChannel(SeekableByteChannel channel) {
+        return new ChannelZipFile(this, channel);
+    }
+
+    SeekableByteChannel getChannel() {
+        return channel;
+    }
+
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public InputStream getInputStream(Entry entry) throws IOException {
+        if (entry.method != ZipEntry.DEFLATED) {
+            return getInputStream(entry, null);
+        }
+        Inflater inflater = new Inflater(true);
+        return new FilterInputStream(getInputStream(entry, inflater)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * Opens an entry using a caller-owned {@link Inflater}, which lets a worker reuse
+     * one inflater across many entries. The inflater must be reset between entries and
+     * is not ended when the stream is closed.
+     */
+    public InputStream getInputStream(Entry entry, Inflater inflater) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Bad local header for " + entry.name);
+        }
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE
+            + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        InputStream raw = new EntryDataStream(dataOffset, entry.compressedSize);
+
+        if (entry.method == ZipEntry.STORED) {
+            return raw;
+        }
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+        return new InflaterInputStream(raw, inflater, 8192);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer findEndOfCentralDirectory() throws IOException {
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_MIN_SIZE + 0xFFFF);
+        ByteBuffer tail = read(size - tailSize, tailSize);
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_MIN_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIG) {
+                tail.position(i);
+                return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        throw new ZipException("Missing end of central directory");
+    }
+
+    private void readCentralDirectory(long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE || offset + size > channel.size()) {
+            throw new ZipException("Central directory lies outside the archive");
+        }
+        ByteBuffer directory = read(offset, (int) size);
+        int pos = 0;
+        while (pos + CENTRAL_HEADER_SIZE <= size && directory.getInt(pos) == CENTRAL_HEADER_SIG) {
+            int method = directory.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = directory.getInt(pos + 20) & 0xFFFFFFFFL;
+            long uncompressedSize = directory.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+            int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            int next = pos + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (next > size) {
+                throw new ZipException("Central directory record at " + pos + " overruns the directory");
+            }
+            byte[] name = new byte[nameLength];
+            directory.position(pos + CENTRAL_HEADER_SIZE);
+            directory.get(name);
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            // ZIP64 keeps the real values in an extra field, which is not supported
+            if (compressedSize == ZIP64_MARKER || uncompressedSize == ZIP64_MARKER
+                    || localHeaderOffset == ZIP64_MARKER) {
+                throw new ZipException("ZIP64 entries are not supported: " + entryName);
+            }
+            entries.put(entryName, new Entry(entryName, method, compressedSize, uncompressedSize, localHeaderOffset));
+
+            pos = next;
+        }
+        if (entries.isEmpty()) {
+            throw new ZipException("Empty or unreadable central directory");
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes at {@code offset}. Positioning and reading happen
+     * under one lock so concurrent entry streams can share the channel.
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        synchronized (channel) {
+            channel.position(offset);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new ZipException("Unexpected end of archive");
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private class EntryDataStream extends InputStream {
+        private long position;
+        private final long end;
+
+        EntryDataStream(long offset, long length) {
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int n = (int) Math.min(len, end - position);
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, n);
+            synchronized (channel) {
+                channel.position(position);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) break;
+                }
+            }
+            int read = n - buffer.remaining();
+            if (read == 0) throw new ZipException("Unexpected end of archive");
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.fileuploadapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.zip.Inflater;
+
+/**
+ * Runs per-chapter work for a whole book across several cores. Spine entries are split
+ * into batches that run on one bounded {@link ForkJoinPool} shared by all passes; each batch inflates its
+ * chapters with its own {@link Inflater} through its own archive reader, so batches do
+ * not evict each other's decrypted segments, and results come back in spine order.
+ *
+ * The work itself is a chain of steps over {@link Chapter}, e.g.
+ * {@code SANITIZE.andThen(EXTRACT_TEXT).andThen(SEGMENT)}.
+ */
+public class ChapterPipeline {
+    public static final int MAX_PARALLELISM = 8;
+    // Several batches per worker so a few long chapters do not leave cores idle
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final int WORDS_PER_MINUTE = 230;
+    // The stored size comes from the archive, so it only sizes the first buffer up to a limit
+    private static final int MAX_INITIAL_BUFFER_SIZE = 1 << 20;
+
+    private static ForkJoinPool sharedPool;
+
+    public static class Chapter {
+        public final int index;
+        public final String href;
+        public String html;
+        public String text;
+        public List<String> sentences;
+        public int wordCount;
+        public double readingMinutes;
+
+        Chapter(int index, String href, String html) {
+            this.index = index;
+            this.href = href;
+            this.html = html;
+        }
+    }
+
+    public static final Function<Chapter, Chapter> SANITIZE = chapter -> {
+        chapter.html = EpubBook.sanitize(chapter.html);
+        return chapter;
+    };
+
+    public static final Function<Chapter, Chapter> EXTRACT_TEXT = chapter -> {
+        chapter.text = EpubIndexer.extractText(chapter.html);
+        return chapter;
+    };
+
+    public static final Function<Chapter, Chapter> SEGMENT = chapter -> {
+        // split() would turn empty text into one empty sentence
+        chapter.sentences = chapter.text.isEmpty()
+            ? Collections.emptyList()
+            : Arrays.asList(chapter.text.split("(?<=[.!?])\\s+"));
+        return chapter;
+    };
+
+    public static final Function<Chapter, Chapter> TOKENIZE = chapter -> {
+        chapter.wordCount = chapter.text.isEmpty() ? 0 : chapter.text.split("\\s+").length;
+        return chapter;
+    };
+
+    public static final Function<Chapter, Chapter> MEASURE = chapter -> {
+        chapter.readingMinutes = chapter.wordCount / (double) WORDS_PER_MINUTE;
+        return chapter;
+    };
+
+    public static final Function<Chapter, Chapter> ALL_STEPS =
+        SANITIZE.andThen(EXTRACT_TEXT).andThen(SEGMENT).andThen(TOKENIZE).andThen(MEASURE);
+
+    /**
+     * Worker count for the shared pool: one fewer than the number of cores, so the UI
+     * thread keeps a core while a pass runs in the background, and at most
+     * {@link #MAX_PARALLELISM}.
+     */
+    public static int defaultParallelism() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(MAX_PARALLELISM, cores - 1));
+    }
+
+    /**
+     * Created on first use and kept for the life of the process; idle workers exit on
+     * their own, so an unused pool holds no threads.
+     */
+    private static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(defaultParallelism());
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Reads the given spine entries from {@code zipFile}, applies {@code steps} to each
+     * and returns the results in the same order as {@code hrefs}. Blocks until done, so
+     * call it from a background thread.
+     */
+    public static List<Chapter> run(ChannelZipFile zipFile, List<String> hrefs,
+                                    Function<Chapter, Chapter> steps) throws IOException {
+        return run(getSharedPool(), zipFile, hrefs, steps);
+    }
+
+    /**
+     * Same as {@link #run(ChannelZipFile, List, Function)} on a caller-owned pool, e.g.
+     * one per thread count in a benchmark.
+     */
+    public static List<Chapter> run(ForkJoinPool pool, ChannelZipFile zipFile, List<String> hrefs,
+                                    Function<Chapter, Chapter> steps) throws IOException {
+        int parallelism = pool.getParallelism();
+        Chapter[] results = new Chapter[hrefs.size()];
+        int batchSize = Math.max(1, (hrefs.size() + parallelism * BATCHES_PER_WORKER - 1)
+            / (parallelism * BATCHES_PER_WORKER));
+
+        List<Callable<Void>> batches = new ArrayList<>();
+        for (int start = 0; start < hrefs.size(); start += batchSize) {
+            int from = start;
+            int to = Math.min(hrefs.size(), start + batchSize);
+            batches.add(() -> {
+                ChannelZipFile reader = zipFile.withChannel(EncryptedLibraryStore.newReader(zipFile.getChannel()));
+                Inflater inflater = new Inflater(true);
+                try {
+                    for (int i = from; i < to; i++) {
+                        String html = readEntry(reader, hrefs.get(i), inflater);
+                        results[i] = steps.apply(new Chapter(i, hrefs.get(i), html));
+                    }
+                } finally {
+                    inflater.end();
+                }
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> batch : pool.invokeAll(batches)) {
+                batch.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Chapter processing interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("Chapter processing failed: " + cause.getMessage(), cause);
+        }
+        return Arrays.asList(results);
+    }
+
+    private static String readEntry(ChannelZipFile zipFile, String name, Inflater inflater) throws IOException {
+        ChannelZipFile.Entry entry = zipFile.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Missing chapter " + name);
+        }
+        inflater.reset();
+        try (InputStream in = zipFile.getInputStream(entry, inflater)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(entry.size, MAX_INITIAL_BUFFER_SIZE));
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                content.write(buffer, 0, len);
+            }
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.fileuploadapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures how {@link ChapterPipeline} scales with thread count on a synthetic book,
+ * running every step (sanitize, extract, segment, tokenize, measure) on each chapter.
+ * The same book is read both as a plain file and through {@link EncryptedLibraryStore}.
+ */
+public class ChapterPipelineBenchmark {
+    private static final String[] WORDS = {
+        "the", "reader", "turned", "a", "page", "and", "light", "fell", "across", "quiet",
+        "river", "morning", "letter", "window", "garden", "story", "voice", "distant", "city", "night"
+    };
+
+    /**
+     * Builds a book with {@code chapterCount} chapters in {@code workDir}, then times a
+     * full pipeline pass at 1 to {@link ChapterPipeline#MAX_PARALLELISM} threads over the
+     * plain and the encrypted copy. Returns milliseconds per thread count, keyed
+     * "plain_threads_N" and "encrypted_threads_N", and the segment decryptions per
+     * encrypted segment, keyed "encrypted_decrypts_per_segment_N".
+     */
+    public static Map<String, Double> run(File workDir, int chapterCount) throws IOException {
+        File book = File.createTempFile("bench_book", ".epub", workDir);
+        File encryptedBook = File.createTempFile("bench_book_encrypted", ".epub", workDir);
+        try {
+            List<String> hrefs = writeSyntheticBook(book, chapterCount);
+            try (OutputStream out = EncryptedLibraryStore.openEncryptingStream(encryptedBook)) {
+                try (InputStream in = new FileInputStream(book)) {
+                    byte[] buffer = new byte[8192];
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, len);
+                    }
+                }
+            }
+            long segments = (book.length() + EncryptedLibraryStore.SEGMENT_SIZE - 1) / EncryptedLibraryStore.SEGMENT_SIZE;
+            Map<String, Double> results = new LinkedHashMap<>();
+
+            try (ChannelZipFile plain = new ChannelZipFile(new RandomAccessFile(book, "r").getChannel())) {
+                for (int threads = 1; threads <= ChapterPipeline.MAX_PARALLELISM; threads++) {
+                    ForkJoinPool pool = new ForkJoinPool(threads);
+                    try {
+                        if (threads == 1) {
+                            // Warm up the JIT and page cache so the single-thread runs are not penalised
+                            ChapterPipeline.run(pool, plain, hrefs, ChapterPipeline.ALL_STEPS);
+                            try (ChannelZipFile encrypted = openEncrypted(encryptedBook)) {
+                                ChapterPipeline.run(pool, encrypted, hrefs, ChapterPipeline.ALL_STEPS);
+                            }
+                        }
+                        long start = System.nanoTime();
+                        ChapterPipeline.run(pool, plain, hrefs, ChapterPipeline.ALL_STEPS);
+                        results.put("plain_threads_" + threads, (System.nanoTime() - start) / 1_000_000.0);
+
+                        // A fresh channel per run, so no segments are left decrypted by the previous one
+                        try (ChannelZipFile encrypted = openEncrypted(encryptedBook)) {
+                            long decrypted = EncryptedLibraryStore.segmentsDecrypted.get();
+                            start = System.nanoTime();
+                            ChapterPipeline.run(pool, encrypted, hrefs, ChapterPipeline.ALL_STEPS);
+                            results.put("encrypted_threads_" + threads, (System.nanoTime() - start) / 1_000_000.0);
+                            results.put("encrypted_decrypts_per_segment_" + threads,
+                                (EncryptedLibraryStore.segmentsDecrypted.get() - decrypted) / (double) segments);
+                        }
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+            }
+            android.util.Log.i("ChapterPipelineBenchmark", results.toString());
+            return results;
+        } finally {
+            book.delete();
+            encryptedBook.delete();
+        }
+    }
+
+    private static ChannelZipFile openEncrypted(File file) throws IOException {
+        return new ChannelZipFile(EncryptedLibraryStore.openChannel(file));
+    }
+
+    private static List<String> writeSyntheticBook(File file, int chapterCount) throws IOException {
+        List<String> hrefs = new ArrayList<>();
+        Random random = new Random(42);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < chapterCount; i++) {
+                String href = "OEBPS/chapter" + i + ".xhtml";
+                StringBuilder html = new StringBuilder("<?xml version='1.0' encoding='utf-8'?><html><head><title>Chapter ")
+                    .append(i).append("</title></head><body><h1>Chapter ").append(i).append("</h1>");
+                for (int p = 0; p < 20; p++) {
+                    html.append("<p>");
+                    for (int w = 0; w < 60; w++) {
+                        html.append(WORDS[random.nextInt(WORDS.length)]).append(w % 12 == 11 ? ". " : " ");
+                    }
+                    html.append("</p>");
+                }
+                html.append("</body></html>");
+
+                zip.putNextEntry(new ZipEntry(href));
+                zip.write(html.toString().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+                hrefs.add(href);
+            }
+        }
+        return hrefs;
+    }
+}
@@ -1,6 +1,7 @@
 package com.fileuploadapp;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.database.Cursor;
@@ -15,15 +16,22 @@ import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.Arguments;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipException;
 import android.util.Base64;
 
 public class DocumentPickerModule extends ReactContextBaseJavaModule implements ActivityEventListener {
     private static final int PICK_DOCUMENT_REQUEST = 1;
     private Promise mPromise;
+    // Imports run one at a time, off the main thread that delivers activity results
+    private final ExecutorService importer = Executors.newSingleThreadExecutor();
 
     public DocumentPickerModule(ReactApplicationContext reactContext) {
         super(reactContext);
@@ -58,83 +66,172 @@ public class DocumentPickerModule extends ReactContextBaseJavaModule implements
     public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
         if (requestCode == PICK_DOCUMENT_REQUEST) {
             if (mPromise != null) {
+                Promise promise = mPromise;
+                mPromise = null;
                 if (resultCode == Activity.RESULT_CANCELED) {
-                    mPromise.reject("E_PICKER_CANCELLED", "User cancelled");
+                    promise.reject("E_PICKER_CANCELLED", "User cancelled");
                 } else if (resultCode == Activity.RESULT_OK) {
                     Uri uri = data.getData();
                     if (uri != null) {
-                        try {
-                            WritableMap fileData = Arguments.createMap();
-                            
-                            Cursor cursor = activity.getContentResolver().query(uri, null, null, null, null);
-                            String name = "document";
-                            long size = 0;
-                            String type = "unknown";
-                            
-                            if (cursor != null && cursor.moveToFirst()) {
-                                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
-                                
-                                name = cursor.getString(nameIndex);
-                                size = cursor.getLong(sizeIndex);
-                                type = activity.getContentResolver().getType(uri);
-                                
-                                cursor.close();
-                            }
-                            
-                            // Copy file to internal storage
-                            File filesDir = activity.getFilesDir();
-                            File destFile = new File(filesDir, name);
-                            
-                            InputStream inputStream = activity.getContentResolver().openInputStream(uri);
-                            OutputStream outputStream = new FileOutputStream(destFile);
-                            
-                            byte[] buffer = new byte[4096];
-                            int length;
-                            while ((length = inputStream.read(buffer)) > 0) {
-                                outputStream.write(buffer, 0, length);
-                            }
-                            
-                            outputStream.flush();
-                            outputStream.close();
-                            inputStream.close();
-                            
-                            // Return file:// URI instead of content://
-                            fileData.putString("uri", "file://" + destFile.getAbsolutePath());
-                            fileData.putString("name", name);
-                            fileData.putDouble("size", size);
-                            fileData.putString("type", type != null ? type : "unknown");
-                            
-                            mPromise.resolve(fileData);
-                        } catch (Exception e) {
-                            mPromise.reject("E_FILE_COPY_ERROR", "Failed to copy file: " + e.getMessage());
-                        }
+                        // Copying, encrypting and indexing a large book takes far too long for
+                        // the main thread, so the import runs in the background
+                        Context context = activity.getApplicationContext();
+                        importer.execute(() -> importDocument(context, uri, promise));
                     } else {
-                        mPromise.reject("E_NO_FILE_SELECTED", "No file selected");
+                        promise.reject("E_NO_FILE_SELECTED", "No file selected");
                     }
                 }
-                mPromise = null;
             }
         }
     }
 
+    private void importDocument(Context context, Uri uri, Promise promise) {
+        try {
+            WritableMap fileData = Arguments.createMap();
+            
+            Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+            String name = "document";
+            long size = 0;
+            String type = "unknown";
+            
+            if (cursor != null && cursor.moveToFirst()) {
+                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                
+                name = cursor.getString(nameIndex);
+                size = cursor.getLong(sizeIndex);
+                type = context.getContentResolver().getType(uri);
+                
+                cursor.close();
+            }
+            
+            // Copy file to internal storage
+            File filesDir = context.getFilesDir();
+            File destFile = new File(filesDir, name);
+            
+            // Copy into a temporary file first so a failed import never
+            // replaces an existing book of the same name
+            File tempFile = File.createTempFile("import", ".tmp", filesDir);
+            EpubIndex epubIndex = null;
+            try {
+                // Library files are encrypted at rest as they are copied in
+                try (InputStream inputStream = context.getContentResolver().openInputStream(uri);
+                     OutputStream outputStream = EncryptedLibraryStore.openEncryptingStream(tempFile)) {
+                    if (isEpub(name, type)) {
+                        // Index and validate the book in the same pass as the copy
+                        epubIndex = EpubIndexer.copyAndIndex(inputStream, outputStream);
+                    } else {
+                        byte[] buffer = new byte[4096];
+                        int length;
+                        while ((length = inputStream.read(buffer)) > 0) {
+                            outputStream.write(buffer, 0, length);
+                        }
+                    }
+                }
+                
+                if (!tempFile.renameTo(destFile)) {
+                    throw new IOException("Could not move imported file into place");
+                }
+            } catch (ZipException e) {
+                promise.reject("E_INVALID_EPUB", "Not a valid EPUB file: " + e.getMessage());
+                return;
+            } finally {
+                // No-op once the rename has succeeded
+                tempFile.delete();
+            }
+            
+            EpubIndex.delete(destFile);
+            if (epubIndex != null) {
+                // The book is already in place; without a stored index it is simply
+                // indexed again when first opened
+                try {
+                    epubIndex.save(destFile);
+                } catch (IOException e) {
+                    android.util.Log.w("DocumentPicker", "Could not store index for " + destFile.getName(), e);
+                }
+                if (epubIndex.title != null) fileData.putString("title", epubIndex.title);
+                if (epubIndex.author != null) fileData.putString("author", epubIndex.author);
+            }
+            
+            // Return file:// URI instead of content://
+            fileData.putString("uri", "file://" + destFile.getAbsolutePath());
+            fileData.putString("name", name);
+            fileData.putDouble("size", size);
+            fileData.putString("type", type != null ? type : "unknown");
+            
+            promise.resolve(fileData);
+        } catch (Exception e) {
+            promise.reject("E_FILE_COPY_ERROR", "Failed to copy file: " + e.getMessage());
+        }
+    }
+
+    private static boolean isEpub(String name, String type) {
+        return "application/epub+zip".equals(type) || (name != null && name.toLowerCase().endsWith(".epub"));
+    }
+
     @ReactMethod
     public void readFileAsBase64(String filePath, Promise promise) {
         try {
             File file = new File(filePath.replace("file://", ""));
-            FileInputStream inputStream = new FileInputStream(file);
-            byte[] buffer = new byte[(int) file.length()];
-            inputStream.read(buffer);
-            inputStream.close();
+            SeekableByteChannel channel = EncryptedLibraryStore.openChannel(file);
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // Read the whole (decrypted) file
+            }
+            channel.close();
             
-            String base64 = Base64.encodeToString(buffer, Base64.NO_WRAP);
+            String base64 = Base64.encodeToString(buffer.array(), 0, buffer.position(), Base64.NO_WRAP);
             promise.resolve(base64);
         } catch (Exception e) {
             promise.reject("E_FILE_READ_ERROR", "Failed to read file: " + e.getMessage());
         }
     }
 
+    @ReactMethod
+    public void deleteDocument(String filePath, Promise promise) {
+        // Remove the book together with its stored index
+        File file = new File(filePath.replace("file://", ""));
+        EpubIndex.delete(file);
+        if (file.exists() && !file.delete()) {
+            promise.reject("E_FILE_DELETE_ERROR", "Failed to delete " + file.getName());
+            return;
+        }
+        promise.resolve(true);
+    }
+
+    @ReactMethod
+    public void getReadableUri(String filePath, Promise promise) {
+        // Encrypted library files are handed to viewers through LibraryFileProvider
+        File file = new File(filePath.replace("file://", ""));
+        if (EncryptedLibraryStore.isEncrypted(file)) {
+            promise.resolve(LibraryFileProvider.getUri(file).toString());
+        } else {
+            promise.resolve(filePath);
+        }
+    }
+
+    @ReactMethod
+    public void benchmarkEncryption(int sizeMb, Promise promise) {
+        try {
+            Map<String, Double> timings = EncryptionBenchmark.run(getReactApplicationContext().getCacheDir(), sizeMb);
+            WritableMap results = Arguments.createMap();
+            for (Map.Entry<String, Double> result : timings.entrySet()) {
+                results.putDouble(result.getKey(), result.getValue());
+            }
+            promise.resolve(results);
+        } catch (Exception e) {
+            promise.reject("E_BENCHMARK_ERROR", "Benchmark failed: " + e.getMessage());
+        }
+    }
+
     @Override
     public void onNewIntent(Intent intent) {
     }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        // Let an import in progress finish so it does not leave a temporary file behind
+        importer.shutdown();
+    }
 }
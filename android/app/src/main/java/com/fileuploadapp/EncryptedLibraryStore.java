@@ -0,0 +1,440 @@
+package com.fileuploadapp;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encryption at rest for imported documents.
+ *
+ * Each file gets its own random AES-256 data key, wrapped by a key held in the Android
+ * keystore, so only one keystore operation is needed per open. Content is split into
+ * fixed-size segments that are sealed independently with AES-GCM, which lets readers
+ * decrypt any byte range without touching the rest of the file.
+ *
+ * Layout: magic, segment size, nonce prefix, wrapped data key, then the segments. The
+ * nonce of every segment is the file's nonce prefix, the segment number and a flag
+ * marking the last segment, so segments cannot be reordered or the file truncated
+ * without failing authentication.
+ */
+public class EncryptedLibraryStore {
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String MASTER_KEY_ALIAS = "library_master_key";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final byte[] MAGIC = {'F', 'L', 'E', '1'};
+    static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int TAG_SIZE = 16;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int NONCE_SIZE = 12;
+    private static final int DATA_KEY_SIZE = 32;
+    // Recent segments kept for the readers of one file: one in flight per pipeline
+    // worker plus the neighbours where their ranges meet (1 MiB at 64 KiB segments)
+    private static final int SHARED_CACHE_SEGMENTS = 16;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    // Segments decrypted by all readers since start-up, for benchmarks and tests
+    static final AtomicLong segmentsDecrypted = new AtomicLong();
+
+    /**
+     * Supplies the key that wraps each file's data key. Production code uses the
+     * keystore; tests substitute a plain key.
+     */
+    interface MasterKeySource {
+        SecretKey get() throws GeneralSecurityException, IOException;
+    }
+
+    private static final MasterKeySource KEYSTORE_KEY = EncryptedLibraryStore::getMasterKey;
+
+    /**
+     * Returns a stream that encrypts everything written to it into {@code dest}.
+     */
+    public static OutputStream openEncryptingStream(File dest) throws IOException {
+        return openEncryptingStream(dest, KEYSTORE_KEY);
+    }
+
+    static OutputStream openEncryptingStream(File dest, MasterKeySource masterKey) throws IOException {
+        byte[] dataKey = new byte[DATA_KEY_SIZE];
+        byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        random.nextBytes(dataKey);
+        random.nextBytes(noncePrefix);
+
+        byte[] wrapIv;
+        byte[] wrappedKey;
+        try {
+            Cipher wrap = Cipher.getInstance(TRANSFORMATION);
+            wrap.init(Cipher.ENCRYPT_MODE, masterKey.get());
+            wrapIv = wrap.getIV();
+            wrappedKey = wrap.doFinal(dataKey);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not wrap data key", e);
+        }
+
+        OutputStream out = new FileOutputStream(dest);
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4 + NONCE_PREFIX_SIZE + 1 + wrapIv.length + 2 + wrappedKey.length);
+        header.put(MAGIC);
+        header.putInt(SEGMENT_SIZE);
+        header.put(noncePrefix);
+        header.put((byte) wrapIv.length);
+        header.put(wrapIv);
+        header.putShort((short) wrappedKey.length);
+        header.put(wrappedKey);
+        out.write(header.array());
+
+        return new EncryptingOutputStream(out, new SecretKeySpec(dataKey, "AES"), noncePrefix);
+    }
+
+    public static boolean isEncrypted(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] magic = new byte[MAGIC.length];
+            return in.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a read-only, seekable view of the plaintext. Files imported before
+     * encryption was introduced are read as they are.
+     */
+    public static SeekableByteChannel openChannel(File file) throws IOException {
+        return openChannel(file, KEYSTORE_KEY);
+    }
+
+    static SeekableByteChannel openChannel(File file, MasterKeySource masterKey) throws IOException {
+        // FileChannel.open() needs API 26; RandomAccessFile channels work on every version
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        if (!isEncrypted(file)) {
+            return channel;
+        }
+        try {
+            return new DecryptingChannel(channel, masterKey);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns another reader over the same file as {@code channel} with its own position
+     * and segment cache, so threads reading different parts of a file do not evict each
+     * other's segments. The reader shares the open file, the unwrapped data key and a small
+     * cache of recently decrypted segments with {@code channel}, so it holds nothing that
+     * needs closing and closing it leaves {@code channel} open. Plain
+     * files have no segment cache and are returned as they are.
+     */
+    static SeekableByteChannel newReader(SeekableByteChannel channel) {
+        if (channel instanceof DecryptingChannel) {
+            return new DecryptingChannel((DecryptingChannel) channel);
+        }
+        return channel;
+    }
+
+    public static InputStream openInputStream(File file) throws IOException {
+        return Channels.newInputStream(openChannel(file));
+    }
+
+    private static SecretKey getMasterKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(MASTER_KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(MASTER_KEY_ALIAS, null);
+        }
+
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(MASTER_KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .setKeySize(256)
+            .build());
+        return generator.generateKey();
+    }
+
+    private static GCMParameterSpec segmentNonce(byte[] noncePrefix, long segment, boolean last) {
+        ByteBuffer nonce = ByteBuffer.allocate(NONCE_SIZE);
+        nonce.put(noncePrefix);
+        nonce.putInt((int) segment);
+        nonce.put((byte) (last ? 1 : 0));
+        return new GCMParameterSpec(TAG_SIZE * 8, nonce.array());
+    }
+
+    /**
+     * Buffers one segment at a time. A full segment is only sealed once more data
+     * arrives, because the last segment has to be marked as such.
+     */
+    private static class EncryptingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final SecretKeySpec key;
+        private final byte[] noncePrefix;
+        private final Cipher cipher;
+        private final byte[] segment = new byte[SEGMENT_SIZE];
+        private int segmentLength;
+        private long segmentIndex;
+        private boolean closed;
+
+        EncryptingOutputStream(OutputStream out, SecretKeySpec key, byte[] noncePrefix) throws IOException {
+            this.out = out;
+            this.key = key;
+            this.noncePrefix = noncePrefix;
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (segmentLength == SEGMENT_SIZE) {
+                    sealSegment(false);
+                }
+                int n = Math.min(len, SEGMENT_SIZE - segmentLength);
+                System.arraycopy(b, off, segment, segmentLength, n);
+                segmentLength += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                sealSegment(true);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void sealSegment(boolean last) throws IOException {
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, segmentNonce(noncePrefix, segmentIndex, last));
+                out.write(cipher.doFinal(segment, 0, segmentLength));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not encrypt segment " + segmentIndex, e);
+            }
+            segmentIndex++;
+            segmentLength = 0;
+        }
+    }
+
+    /**
+     * Random-access plaintext view of an encrypted file. The most recently decrypted
+     * segment is cached so sequential and nearby reads cost one decryption per segment,
+     * and readers from {@link #newReader} also look in the cache they share.
+     */
+    private static class DecryptingChannel implements SeekableByteChannel {
+        private final FileChannel channel;
+        private final SecretKeySpec key;
+        private final byte[] noncePrefix;
+        private final int segmentSize;
+        private final long headerSize;
+        private final long segmentCount;
+        private final long plaintextSize;
+        private final Cipher cipher;
+        // Readers created by newReader() share the file with the channel that opened it
+        private final boolean ownsChannel;
+
+        private final ByteBuffer cipherSegment;
+        private byte[] plainSegment = new byte[0];
+        private long cachedSegment = -1;
+        // Created once a second reader exists; guarded by its own lock
+        private Map<Long, byte[]> sharedSegments;
+        private long position;
+
+        DecryptingChannel(FileChannel channel, MasterKeySource masterKey) throws IOException {
+            this.channel = channel;
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel.position(0)));
+            in.skipBytes(MAGIC.length);
+            segmentSize = in.readInt();
+            noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            in.readFully(noncePrefix);
+            byte[] wrapIv = new byte[in.readUnsignedByte()];
+            in.readFully(wrapIv);
+            byte[] wrappedKey = new byte[in.readUnsignedShort()];
+            in.readFully(wrappedKey);
+            headerSize = MAGIC.length + 4 + NONCE_PREFIX_SIZE + 1 + wrapIv.length + 2 + wrappedKey.length;
+
+            try {
+                Cipher unwrap = Cipher.getInstance(TRANSFORMATION);
+                unwrap.init(Cipher.DECRYPT_MODE, masterKey.get(), new GCMParameterSpec(TAG_SIZE * 8, wrapIv));
+                key = new SecretKeySpec(unwrap.doFinal(wrappedKey), "AES");
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not unwrap data key", e);
+            }
+
+            long ciphertextSize = channel.size() - headerSize;
+            long sealedSegmentSize = segmentSize + TAG_SIZE;
+            segmentCount = Math.max(1, (ciphertextSize + sealedSegmentSize - 1) / sealedSegmentSize);
+            plaintextSize = ciphertextSize - segmentCount * TAG_SIZE;
+            if (plaintextSize < 0) {
+                throw new IOException("Encrypted file is truncated");
+            }
+            cipherSegment = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+            ownsChannel = true;
+        }
+
+        DecryptingChannel(DecryptingChannel source) {
+            channel = source.channel;
+            key = source.key;
+            noncePrefix = source.noncePrefix;
+            segmentSize = source.segmentSize;
+            headerSize = source.headerSize;
+            segmentCount = source.segmentCount;
+            plaintextSize = source.plaintextSize;
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                // The source channel already created a cipher for this transformation
+                throw new IllegalStateException(e);
+            }
+            cipherSegment = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+            ownsChannel = false;
+            synchronized (source) {
+                if (source.sharedSegments == null) {
+                    source.sharedSegments = new LinkedHashMap<Long, byte[]>(SHARED_CACHE_SEGMENTS + 1, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                            return size() > SHARED_CACHE_SEGMENTS;
+                        }
+                    };
+                }
+                sharedSegments = source.sharedSegments;
+            }
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst) throws IOException {
+            if (position >= plaintextSize) return -1;
+
+            int total = 0;
+            while (dst.hasRemaining() && position < plaintextSize) {
+                long segment = position / segmentSize;
+                loadSegment(segment);
+                int offset = (int) (position - segment * segmentSize);
+                int n = Math.min(dst.remaining(), plainSegment.length - offset);
+                dst.put(plainSegment, offset, n);
+                position += n;
+                total += n;
+            }
+            return total;
+        }
+
+        private void loadSegment(long segment) throws IOException {
+            if (segment == cachedSegment) return;
+            if (sharedSegments != null) {
+                byte[] shared;
+                synchronized (sharedSegments) {
+                    shared = sharedSegments.get(segment);
+                }
+                if (shared != null) {
+                    plainSegment = shared;
+                    cachedSegment = segment;
+                    return;
+                }
+            }
+
+            cipherSegment.clear();
+            long segmentStart = headerSize + segment * (segmentSize + TAG_SIZE);
+            while (cipherSegment.hasRemaining()) {
+                int n = channel.read(cipherSegment, segmentStart + cipherSegment.position());
+                if (n < 0) break;
+            }
+            try {
+                boolean last = segment == segmentCount - 1;
+                cipher.init(Cipher.DECRYPT_MODE, key, segmentNonce(noncePrefix, segment, last));
+                plainSegment = cipher.doFinal(cipherSegment.array(), 0, cipherSegment.position());
+            } catch (GeneralSecurityException e) {
+                cachedSegment = -1;
+                throw new IOException("Segment " + segment + " failed authentication", e);
+            }
+            cachedSegment = segment;
+            segmentsDecrypted.incrementAndGet();
+            if (sharedSegments != null) {
+                synchronized (sharedSegments) {
+                    sharedSegments.put(segment, plainSegment);
+                }
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized long position() {
+            return position;
+        }
+
+        @Override
+        public synchronized SeekableByteChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return plaintextSize;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsChannel) {
+                channel.close();
+            }
+        }
+    }
+}
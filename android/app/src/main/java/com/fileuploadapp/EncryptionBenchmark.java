@@ -0,0 +1,104 @@
+package com.fileuploadapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares reads through {@link EncryptedLibraryStore} with plain file reads on the
+ * same synthetic data, to keep an eye on the per-segment decryption overhead.
+ */
+public class EncryptionBenchmark {
+    private static final int RANDOM_READS = 2000;
+    private static final int RANDOM_READ_SIZE = 4096;
+    private static final int SEQUENTIAL_READ_SIZE = 64 * 1024;
+
+    /**
+     * Runs the benchmark in {@code workDir} and returns timings in milliseconds.
+     * Temporary files are removed afterwards.
+     */
+    public static Map<String, Double> run(File workDir, int sizeMb) throws IOException {
+        File plain = File.createTempFile("bench_plain", null, workDir);
+        File encrypted = File.createTempFile("bench_encrypted", null, workDir);
+        try {
+            byte[] chunk = new byte[1024 * 1024];
+            Random random = new Random(42);
+            long start = System.nanoTime();
+            try (OutputStream out = new FileOutputStream(plain)) {
+                for (int i = 0; i < sizeMb; i++) {
+                    random.nextBytes(chunk);
+                    out.write(chunk);
+                }
+            }
+            double plainWriteMs = elapsedMs(start);
+
+            random = new Random(42);
+            start = System.nanoTime();
+            try (OutputStream out = EncryptedLibraryStore.openEncryptingStream(encrypted)) {
+                for (int i = 0; i < sizeMb; i++) {
+                    random.nextBytes(chunk);
+                    out.write(chunk);
+                }
+            }
+            double encryptedWriteMs = elapsedMs(start);
+
+            Map<String, Double> results = new LinkedHashMap<>();
+            results.put("sizeMb", (double) sizeMb);
+            results.put("plainWriteMs", plainWriteMs);
+            results.put("encryptedWriteMs", encryptedWriteMs);
+
+            try (SeekableByteChannel channel = new RandomAccessFile(plain, "r").getChannel()) {
+                results.put("plainSequentialMs", sequentialRead(channel));
+                results.put("plainRandomMs", randomReads(channel));
+            }
+            try (SeekableByteChannel channel = EncryptedLibraryStore.openChannel(encrypted)) {
+                results.put("encryptedSequentialMs", sequentialRead(channel));
+                results.put("encryptedRandomMs", randomReads(channel));
+            }
+
+            long segments = ((long) sizeMb * 1024 * 1024 + EncryptedLibraryStore.SEGMENT_SIZE - 1)
+                / EncryptedLibraryStore.SEGMENT_SIZE;
+            results.put("perSegmentOverheadMs",
+                (results.get("encryptedSequentialMs") - results.get("plainSequentialMs")) / segments);
+            android.util.Log.i("EncryptionBenchmark", results.toString());
+            return results;
+        } finally {
+            plain.delete();
+            encrypted.delete();
+        }
+    }
+
+    private static double sequentialRead(SeekableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SEQUENTIAL_READ_SIZE);
+        long start = System.nanoTime();
+        channel.position(0);
+        while (channel.read(buffer) > 0) {
+            buffer.clear();
+        }
+        return elapsedMs(start);
+    }
+
+    private static double randomReads(SeekableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RANDOM_READ_SIZE);
+        Random random = new Random(7);
+        long range = Math.max(1, channel.size() - RANDOM_READ_SIZE);
+        long start = System.nanoTime();
+        for (int i = 0; i < RANDOM_READS; i++) {
+            buffer.clear();
+            channel.position((long) (random.nextDouble() * range));
+            channel.read(buffer);
+        }
+        return elapsedMs(start);
+    }
+
+    private static double elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000.0;
+    }
+}
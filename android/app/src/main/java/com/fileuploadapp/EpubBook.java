@@ -0,0 +1,249 @@
+package com.fileuploadapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An open EPUB that serves individual chapters on demand. Only the archive's central
+ * directory and the book's index are kept in memory; chapter content is read when
+ * asked for and a few recent chapters are cached, so memory stays bounded regardless
+ * of book size. The archive may be plain or stored by {@link EncryptedLibraryStore}.
+ */
+public class EpubBook implements Closeable {
+    private static final int MAX_CACHED_CHAPTERS = 3;
+    // The stored size comes from the archive, so it only sizes the first buffer up to a limit
+    private static final int MAX_INITIAL_BUFFER_SIZE = 1 << 20;
+    // Larger images and stylesheets are left as links rather than inlined into the chapter
+    private static final int MAX_INLINED_RESOURCE_SIZE = 2 * 1024 * 1024;
+
+    private static final Pattern STYLESHEET_LINK = Pattern.compile(
+        "(?is)<link\\b(?=[^>]*\\brel\\s*=\\s*[\"'][^\"']*stylesheet)[^>]*?\\bhref\\s*=\\s*([\"'])(.*?)\\1[^>]*>");
+    // <img src> and SVG <image href> / <image xlink:href>
+    private static final Pattern IMAGE_SOURCE = Pattern.compile(
+        "(?is)(<(?:img\\b[^>]*?\\bsrc|image\\b[^>]*?\\b(?:xlink:)?href)\\s*=\\s*)([\"'])(.*?)\\2");
+
+    private final ChannelZipFile zipFile;
+    private final EpubIndex index;
+    // processAll() passes in flight; close() waits for them instead of pulling the archive away
+    private int runningPasses;
+    private boolean closeRequested;
+    private final Map<Integer, String> chapterCache =
+        new LinkedHashMap<Integer, String>(MAX_CACHED_CHAPTERS + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > MAX_CACHED_CHAPTERS;
+            }
+        };
+
+    private EpubBook(ChannelZipFile zipFile, EpubIndex index) {
+        this.zipFile = zipFile;
+        this.index = index;
+    }
+
+    /**
+     * Opens a book, indexing it first if it was not indexed at import time.
+     */
+    public static EpubBook open(File file) throws IOException {
+        EpubIndex index = EpubIndex.load(file);
+        if (index == null) {
+            index = EpubIndexer.indexFile(file);
+        }
+        return open(file, index);
+    }
+
+    /**
+     * Opens a book using an index the caller has already loaded.
+     */
+    public static EpubBook open(File file, EpubIndex index) throws IOException {
+        ChannelZipFile zipFile = new ChannelZipFile(EncryptedLibraryStore.openChannel(file),
+            index.centralDirectoryOffset, index.centralDirectorySize);
+        return new EpubBook(zipFile, index);
+    }
+
+    public EpubIndex getIndex() {
+        return index;
+    }
+
+    public List<EpubIndex.Chapter> getSpine() {
+        return index.spine;
+    }
+
+    /**
+     * Returns the chapter's markup with the document-level tags removed. Images and
+     * stylesheets from the book are inlined, since the chapter is shown without a base
+     * URL that could resolve their relative links.
+     */
+    public synchronized String getChapter(int chapterIndex) throws IOException {
+        if (closeRequested) {
+            throw new IOException("Book is closed");
+        }
+        String cached = chapterCache.get(chapterIndex);
+        if (cached != null) return cached;
+
+        String href = getSpineItem(chapterIndex).href;
+        String baseDir = href.substring(0, href.lastIndexOf('/') + 1);
+        String html = readEntry(href);
+        // Stylesheets are linked from <head>, which sanitize() drops, so they go first
+        String content = inlineStylesheets(html, baseDir) + sanitize(inlineImages(html, baseDir));
+        chapterCache.put(chapterIndex, content);
+        return content;
+    }
+
+    public String getChapterText(int chapterIndex) throws IOException {
+        return EpubIndexer.extractText(getChapter(chapterIndex));
+    }
+
+    /**
+     * Runs {@code steps} over every chapter in parallel; see {@link ChapterPipeline}.
+     * Blocks until every chapter is done, so call it from a background thread.
+     */
+    public List<ChapterPipeline.Chapter> processAll(
+            Function<ChapterPipeline.Chapter, ChapterPipeline.Chapter> steps) throws IOException {
+        synchronized (this) {
+            if (closeRequested) {
+                throw new IOException("Book is closed");
+            }
+            runningPasses++;
+        }
+        try {
+            List<String> hrefs = new ArrayList<>();
+            for (EpubIndex.Chapter chapter : index.spine) {
+                hrefs.add(chapter.href);
+            }
+            return ChapterPipeline.run(zipFile, hrefs, steps);
+        } finally {
+            synchronized (this) {
+                if (--runningPasses == 0 && closeRequested) {
+                    try {
+                        closeNow();
+                    } catch (IOException e) {
+                        android.util.Log.w("EpubBook", "Failed to close book", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Strips the document-level tags from chapter markup so it can be placed inside
+     * a reader page.
+     */
+    static String sanitize(String content) {
+        content = content.replaceAll("(?is)<head[^>]*>.*?</head>", "");
+        content = content.replaceAll("(?i)</?html[^>]*>", "");
+        content = content.replaceAll("(?i)</?body[^>]*>", "");
+        content = content.replaceAll("(?i)<meta[^>]*>", "");
+        content = content.replaceAll("(?i)<\\?xml[^>]*>", "");
+        content = content.replaceAll("(?i)<!DOCTYPE[^>]*>", "");
+        return content;
+    }
+
+    /**
+     * Closes the book, or, while {@link #processAll} passes are running, marks it closed
+     * and releases the archive once the last of them finishes.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closeRequested = true;
+        if (runningPasses == 0) {
+            closeNow();
+        }
+    }
+
+    private void closeNow() throws IOException {
+        chapterCache.clear();
+        zipFile.close();
+    }
+
+    private EpubIndex.Chapter getSpineItem(int chapterIndex) throws IOException {
+        if (chapterIndex < 0 || chapterIndex >= index.spine.size()) {
+            throw new IOException("Chapter " + chapterIndex + " out of range (0-" + (index.spine.size() - 1) + ")");
+        }
+        return index.spine.get(chapterIndex);
+    }
+
+    private String inlineStylesheets(String html, String baseDir) throws IOException {
+        StringBuilder styles = new StringBuilder();
+        Matcher link = STYLESHEET_LINK.matcher(html);
+        while (link.find()) {
+            byte[] css = readResource(baseDir, link.group(2));
+            if (css != null) {
+                styles.append("<style>").append(new String(css, StandardCharsets.UTF_8)).append("</style>");
+            }
+        }
+        return styles.toString();
+    }
+
+    private String inlineImages(String html, String baseDir) throws IOException {
+        Matcher image = IMAGE_SOURCE.matcher(html);
+        StringBuffer result = new StringBuffer();
+        while (image.find()) {
+            String src = image.group(3);
+            byte[] data = readResource(baseDir, src);
+            if (data != null) {
+                src = "data:" + mimeType(src) + ";base64,"
+                    + android.util.Base64.encodeToString(data, android.util.Base64.NO_WRAP);
+            }
+            image.appendReplacement(result, Matcher.quoteReplacement(image.group(1) + image.group(2) + src + image.group(2)));
+        }
+        image.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * Reads a resource a chapter refers to, or returns null for external URLs, missing
+     * entries and resources too large to inline.
+     */
+    private byte[] readResource(String baseDir, String href) throws IOException {
+        if (href.isEmpty() || href.startsWith("/") || href.startsWith("#")
+                || href.matches("(?s)[a-zA-Z][a-zA-Z0-9+.-]*:.*")) {
+            return null;
+        }
+        ChannelZipFile.Entry entry = zipFile.getEntry(EpubIndexer.resolve(baseDir, href));
+        if (entry == null || entry.size > MAX_INLINED_RESOURCE_SIZE) {
+            return null;
+        }
+        return readBytes(entry);
+    }
+
+    private static String mimeType(String href) {
+        String name = href.toLowerCase();
+        if (name.endsWith(".png")) return "image/png";
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return "image/jpeg";
+        if (name.endsWith(".gif")) return "image/gif";
+        if (name.endsWith(".svg")) return "image/svg+xml";
+        if (name.endsWith(".webp")) return "image/webp";
+        return "application/octet-stream";
+    }
+
+    private String readEntry(String name) throws IOException {
+        ChannelZipFile.Entry entry = zipFile.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Missing chapter " + name);
+        }
+        return new String(readBytes(entry), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(ChannelZipFile.Entry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(entry.size, MAX_INITIAL_BUFFER_SIZE));
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                content.write(buffer, 0, len);
+            }
+            return content.toByteArray();
+        }
+    }
+}
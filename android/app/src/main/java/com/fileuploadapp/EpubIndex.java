@@ -0,0 +1,176 @@
+package com.fileuploadapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metadata discovered for an EPUB: archive entries, OPF metadata, reading order and
+ * chapter text offsets. Built once (at import time when possible) and stored next to
+ * the book so opening it does not have to rediscover its structure.
+ */
+public class EpubIndex {
+    private static final String INDEX_DIR = ".epub_index";
+
+    public static class Entry {
+        public final String name;
+        public final long size;
+        public final long compressedSize;
+        public final long crc;
+
+        public Entry(String name, long size, long compressedSize, long crc) {
+            this.name = name;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.crc = crc;
+        }
+    }
+
+    public static class Chapter {
+        public final String href;
+        // Offset of this chapter's first character in the book's plain text
+        public final long textOffset;
+        public final long textLength;
+
+        public Chapter(String href, long textOffset, long textLength) {
+            this.href = href;
+            this.textOffset = textOffset;
+            this.textLength = textLength;
+        }
+    }
+
+    public String title;
+    public String author;
+    public String coverHref;
+    public long centralDirectoryOffset = -1;
+    public long centralDirectorySize = -1;
+    public final List<Entry> entries = new ArrayList<>();
+    public final List<Chapter> spine = new ArrayList<>();
+
+    // Identity of the file this index was built from, used to detect stale indexes
+    long sourceLength;
+    long sourceModified;
+
+    public long getTotalTextLength() {
+        if (spine.isEmpty()) return 0;
+        Chapter last = spine.get(spine.size() - 1);
+        return last.textOffset + last.textLength;
+    }
+
+    /**
+     * Returns the stored index for the given book, or null if there is none or the
+     * book has changed since it was indexed.
+     */
+    public static EpubIndex load(File epubFile) {
+        File indexFile = indexFileFor(epubFile);
+        if (!indexFile.exists()) return null;
+
+        try (InputStream in = EncryptedLibraryStore.openInputStream(indexFile)) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                data.write(buffer, 0, len);
+            }
+            EpubIndex index = fromJson(new JSONObject(new String(data.toByteArray(), StandardCharsets.UTF_8)));
+            if (index.sourceLength != epubFile.length() || index.sourceModified != epubFile.lastModified()) {
+                return null;
+            }
+            return index;
+        } catch (IOException | JSONException e) {
+            android.util.Log.w("EpubIndex", "Ignoring unreadable index for " + epubFile.getName(), e);
+            return null;
+        }
+    }
+
+    public void save(File epubFile) throws IOException {
+        sourceLength = epubFile.length();
+        sourceModified = epubFile.lastModified();
+
+        File indexFile = indexFileFor(epubFile);
+        File dir = indexFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        // The index names the book's title, author and contents, so it is encrypted like the book
+        try (OutputStream out = EncryptedLibraryStore.openEncryptingStream(indexFile)) {
+            out.write(toJson().toString().getBytes(StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new IOException("Could not encode index", e);
+        }
+    }
+
+    public static void delete(File epubFile) {
+        indexFileFor(epubFile).delete();
+    }
+
+    private static File indexFileFor(File epubFile) {
+        return new File(new File(epubFile.getParentFile(), INDEX_DIR), epubFile.getName() + ".json");
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("title", title);
+        json.put("author", author);
+        json.put("cover", coverHref);
+        json.put("cdOffset", centralDirectoryOffset);
+        json.put("cdSize", centralDirectorySize);
+        json.put("sourceLength", sourceLength);
+        json.put("sourceModified", sourceModified);
+
+        JSONArray entriesJson = new JSONArray();
+        for (Entry entry : entries) {
+            JSONObject e = new JSONObject();
+            e.put("name", entry.name);
+            e.put("size", entry.size);
+            e.put("csize", entry.compressedSize);
+            e.put("crc", entry.crc);
+            entriesJson.put(e);
+        }
+        json.put("entries", entriesJson);
+
+        JSONArray spineJson = new JSONArray();
+        for (Chapter chapter : spine) {
+            JSONObject c = new JSONObject();
+            c.put("href", chapter.href);
+            c.put("offset", chapter.textOffset);
+            c.put("length", chapter.textLength);
+            spineJson.put(c);
+        }
+        json.put("spine", spineJson);
+        return json;
+    }
+
+    private static EpubIndex fromJson(JSONObject json) throws JSONException {
+        EpubIndex index = new EpubIndex();
+        index.title = json.optString("title", null);
+        index.author = json.optString("author", null);
+        index.coverHref = json.optString("cover", null);
+        index.centralDirectoryOffset = json.optLong("cdOffset", -1);
+        index.centralDirectorySize = json.optLong("cdSize", -1);
+        index.sourceLength = json.getLong("sourceLength");
+        index.sourceModified = json.getLong("sourceModified");
+
+        JSONArray entriesJson = json.getJSONArray("entries");
+        for (int i = 0; i < entriesJson.length(); i++) {
+            JSONObject e = entriesJson.getJSONObject(i);
+            index.entries.add(new Entry(e.getString("name"), e.getLong("size"), e.getLong("csize"), e.getLong("crc")));
+        }
+
+        JSONArray spineJson = json.getJSONArray("spine");
+        for (int i = 0; i < spineJson.length(); i++) {
+            JSONObject c = spineJson.getJSONObject(i);
+            index.spine.add(new Chapter(c.getString("href"), c.getLong("offset"), c.getLong("length")));
+        }
+        return index;
+    }
+}
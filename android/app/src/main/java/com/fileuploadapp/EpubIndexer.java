@@ -0,0 +1,417 @@
+package com.fileuploadapp;
+
+import android.net.Uri;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Builds an {@link EpubIndex} in a single streaming pass over the archive. The same pass
+ * can copy the bytes to their destination, so importing a book also indexes and
+ * validates it (entry CRCs, central directory, container and OPF) at no extra read.
+ */
+public class EpubIndexer {
+    private static final int END_OF_CENTRAL_DIRECTORY_SIG = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_MIN_SIZE = 22;
+    // The end record sits within the last 22 bytes plus a comment of at most 64 KB
+    static final int TAIL_SIZE = END_OF_CENTRAL_DIRECTORY_MIN_SIZE + 0xFFFF;
+
+    /**
+     * The platform services indexing needs. Unit tests run against android.jar stubs,
+     * which have no implementations, so they supply plain-Java ones instead.
+     */
+    interface Platform {
+        XmlPullParser newPullParser() throws XmlPullParserException;
+
+        String decodeUri(String uri);
+    }
+
+    private static final Platform ANDROID = new Platform() {
+        @Override
+        public XmlPullParser newPullParser() {
+            return Xml.newPullParser();
+        }
+
+        @Override
+        public String decodeUri(String uri) {
+            return Uri.decode(uri);
+        }
+    };
+
+    /**
+     * Copies {@code in} to {@code out} while indexing it. Throws {@link ZipException} if
+     * the stream is not a readable EPUB; any other {@link IOException} comes from reading
+     * {@code in} or writing {@code out}. The caller is responsible for discarding what
+     * was written.
+     */
+    public static EpubIndex copyAndIndex(InputStream in, OutputStream out) throws IOException {
+        return copyAndIndex(in, out, ANDROID);
+    }
+
+    static EpubIndex copyAndIndex(InputStream in, OutputStream out, Platform platform) throws IOException {
+        try {
+            return readArchive(new TeeInputStream(in, out), platform);
+        } catch (StreamFailure e) {
+            throw (IOException) e.getCause();
+        } catch (ZipException e) {
+            throw e;
+        } catch (IOException e) {
+            // e.g. an EOFException from an archive that ends mid-entry
+            ZipException formatError = new ZipException("Malformed archive: " + e.getMessage());
+            formatError.initCause(e);
+            throw formatError;
+        }
+    }
+
+    private static EpubIndex readArchive(TeeInputStream tee, Platform platform) throws IOException {
+        ZipInputStream zipInputStream = new ZipInputStream(tee);
+
+        EpubIndex index = new EpubIndex();
+        Map<String, byte[]> xmlFiles = new HashMap<>();
+        Map<String, Long> textLengths = new HashMap<>();
+        byte[] buffer = new byte[8192];
+
+        ZipEntry entry;
+        while ((entry = zipInputStream.getNextEntry()) != null) {
+            String name = entry.getName();
+            ByteArrayOutputStream content = null;
+            if (name.endsWith(".xml") || name.endsWith(".opf") || isHtml(name)) {
+                content = new ByteArrayOutputStream();
+            }
+
+            // Reading each entry to the end makes ZipInputStream verify its CRC
+            int len;
+            while ((len = zipInputStream.read(buffer)) > 0) {
+                if (content != null) content.write(buffer, 0, len);
+            }
+
+            if (content != null) {
+                if (isHtml(name)) {
+                    String html = new String(content.toByteArray(), StandardCharsets.UTF_8);
+                    textLengths.put(name, (long) extractText(html).length());
+                } else {
+                    xmlFiles.put(name, content.toByteArray());
+                }
+            }
+            index.entries.add(new EpubIndex.Entry(name, entry.getSize(), entry.getCompressedSize(), entry.getCrc()));
+            zipInputStream.closeEntry();
+        }
+
+        // Pass the central directory through to the destination as well
+        while (tee.read(buffer) != -1) {
+            // Draining only
+        }
+
+        if (index.entries.isEmpty()) {
+            throw new ZipException("Not a ZIP archive");
+        }
+        readEndOfCentralDirectory(tee.getTail(), index);
+
+        byte[] container = xmlFiles.get("META-INF/container.xml");
+        if (container == null) {
+            throw new ZipException("Missing META-INF/container.xml");
+        }
+        String opfPath = parseRootFile(container, platform);
+        byte[] opf = opfPath != null ? xmlFiles.get(opfPath) : null;
+        if (opf == null) {
+            throw new ZipException("Missing package document " + opfPath);
+        }
+        parseOpf(opf, opfPath, index, platform);
+
+        long offset = 0;
+        List<EpubIndex.Chapter> chapters = new ArrayList<>();
+        for (EpubIndex.Chapter chapter : index.spine) {
+            Long length = textLengths.get(chapter.href);
+            if (length == null) {
+                throw new ZipException("Spine item not found in archive: " + chapter.href);
+            }
+            chapters.add(new EpubIndex.Chapter(chapter.href, offset, length));
+            offset += length;
+        }
+        index.spine.clear();
+        index.spine.addAll(chapters);
+
+        if (index.spine.isEmpty()) {
+            throw new ZipException("EPUB has no readable chapters");
+        }
+        return index;
+    }
+
+    /**
+     * Indexes a book that is already on disk and stores the result next to it. Failing
+     * to store the index is not fatal; the book is simply indexed again next time.
+     */
+    public static EpubIndex indexFile(File epubFile) throws IOException {
+        EpubIndex index;
+        try (InputStream in = EncryptedLibraryStore.openInputStream(epubFile)) {
+            index = copyAndIndex(in, null);
+        }
+        try {
+            index.save(epubFile);
+        } catch (IOException e) {
+            android.util.Log.w("EpubIndexer", "Could not store index for " + epubFile.getName(), e);
+        }
+        return index;
+    }
+
+    public static boolean isHtml(String name) {
+        return name.endsWith(".html") || name.endsWith(".xhtml") || name.endsWith(".htm");
+    }
+
+    /**
+     * Reduces chapter markup to the plain text that is displayed and spoken.
+     */
+    public static String extractText(String html) {
+        String text = html.replaceAll("(?is)<(script|style|head)[^>]*>.*?</\\1>", " ");
+        text = text.replaceAll("<[^>]+>", " ");
+        text = text.replace("&nbsp;", " ")
+            .replace("&lt;", "<")
+            .replace("&gt;", ">")
+            .replace("&quot;", "\"")
+            .replace("&#39;", "'")
+            .replace("&amp;", "&");
+        return text.replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * Finds the end record in the last bytes of the archive, checks its entry count
+     * against the entries actually read and records where the central directory is.
+     */
+    static void readEndOfCentralDirectory(byte[] tail, EpubIndex index) throws ZipException {
+        for (int i = tail.length - END_OF_CENTRAL_DIRECTORY_MIN_SIZE; i >= 0; i--) {
+            if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY_SIG) {
+                int totalEntries = readShort(tail, i + 10);
+                if (totalEntries != 0xFFFF && totalEntries != index.entries.size()) {
+                    throw new ZipException("Central directory lists " + totalEntries
+                        + " entries but archive contains " + index.entries.size());
+                }
+                index.centralDirectorySize = readInt(tail, i + 12) & 0xFFFFFFFFL;
+                index.centralDirectoryOffset = readInt(tail, i + 16) & 0xFFFFFFFFL;
+                return;
+            }
+        }
+        throw new ZipException("Missing end of central directory (truncated file?)");
+    }
+
+    private static int readShort(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return readShort(b, off) | readShort(b, off + 2) << 16;
+    }
+
+    private static String parseRootFile(byte[] container, Platform platform) throws IOException {
+        try {
+            XmlPullParser parser = newParser(container, platform);
+            int event;
+            while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.START_TAG && "rootfile".equals(parser.getName())) {
+                    return parser.getAttributeValue(null, "full-path");
+                }
+            }
+            return null;
+        } catch (XmlPullParserException e) {
+            throw new ZipException("Invalid container.xml: " + e.getMessage());
+        }
+    }
+
+    private static void parseOpf(byte[] opf, String opfPath, EpubIndex index, Platform platform) throws IOException {
+        int slash = opfPath.lastIndexOf('/');
+        String baseDir = slash >= 0 ? opfPath.substring(0, slash + 1) : "";
+
+        Map<String, String> manifest = new HashMap<>();
+        List<String> spineIds = new ArrayList<>();
+        String coverId = null;
+
+        try {
+            XmlPullParser parser = newParser(opf, platform);
+            int event;
+            while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (event != XmlPullParser.START_TAG) continue;
+
+                String tag = parser.getName();
+                if ("title".equals(tag) && index.title == null) {
+                    index.title = parser.nextText().trim();
+                } else if ("creator".equals(tag) && index.author == null) {
+                    index.author = parser.nextText().trim();
+                } else if ("meta".equals(tag) && "cover".equals(parser.getAttributeValue(null, "name"))) {
+                    coverId = parser.getAttributeValue(null, "content");
+                } else if ("item".equals(tag)) {
+                    String id = parser.getAttributeValue(null, "id");
+                    String href = resolve(baseDir, parser.getAttributeValue(null, "href"), platform);
+                    manifest.put(id, href);
+                    String properties = parser.getAttributeValue(null, "properties");
+                    if (properties != null && properties.contains("cover-image")) {
+                        index.coverHref = href;
+                    }
+                } else if ("itemref".equals(tag)) {
+                    spineIds.add(parser.getAttributeValue(null, "idref"));
+                }
+            }
+        } catch (XmlPullParserException e) {
+            throw new ZipException("Invalid package document: " + e.getMessage());
+        }
+
+        if (index.coverHref == null && coverId != null) {
+            index.coverHref = manifest.get(coverId);
+        }
+        for (String id : spineIds) {
+            String href = manifest.get(id);
+            if (href != null && isHtml(href)) {
+                index.spine.add(new EpubIndex.Chapter(href, 0, 0));
+            }
+        }
+    }
+
+    private static XmlPullParser newParser(byte[] xml, Platform platform) throws XmlPullParserException {
+        XmlPullParser parser = platform.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(new ByteArrayInputStream(xml), null);
+        return parser;
+    }
+
+    /**
+     * Resolves a manifest href against the package document's directory, or a chapter
+     * link against the chapter's directory, into the archive entry name it refers to.
+     */
+    static String resolve(String baseDir, String href) {
+        return resolve(baseDir, href, ANDROID);
+    }
+
+    static String resolve(String baseDir, String href, Platform platform) {
+        if (href == null) return null;
+        int fragment = href.indexOf('#');
+        if (fragment >= 0) href = href.substring(0, fragment);
+        // Hrefs are URI paths: decode percent-escapes only ("+" is a literal plus)
+        if (href.indexOf('%') >= 0) href = platform.decodeUri(href);
+
+        // Collapse "../" segments so the result matches the archive entry name
+        List<String> parts = new ArrayList<>();
+        for (String part : (baseDir + href).split("/")) {
+            if (part.isEmpty() || part.equals(".")) continue;
+            if (part.equals("..")) {
+                if (!parts.isEmpty()) parts.remove(parts.size() - 1);
+            } else {
+                parts.add(part);
+            }
+        }
+        return String.join("/", parts);
+    }
+
+    /**
+     * Marks a failure reading the source or writing the copy, as opposed to a malformed
+     * archive.
+     */
+    private static class StreamFailure extends IOException {
+        StreamFailure(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Passes every byte read through to an optional output and remembers the last
+     * {@link #TAIL_SIZE} bytes so the end of central directory can be inspected.
+     */
+    static class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+        private final byte[] tail = new byte[TAIL_SIZE];
+        private long total;
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                throw new StreamFailure(e);
+            }
+            if (b >= 0) {
+                byte[] one = {(byte) b};
+                record(one, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException e) {
+                throw new StreamFailure(e);
+            }
+            if (n > 0) record(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Route skips through read so skipped bytes still reach the output
+            byte[] buffer = new byte[8192];
+            long skipped = 0;
+            while (skipped < n) {
+                int len = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (len < 0) break;
+                skipped += len;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void record(byte[] b, int off, int len) throws IOException {
+            if (out != null) {
+                try {
+                    out.write(b, off, len);
+                } catch (IOException e) {
+                    throw new StreamFailure(e);
+                }
+            }
+            total += len;
+            if (len > TAIL_SIZE) {
+                off += len - TAIL_SIZE;
+                len = TAIL_SIZE;
+            }
+            int pos = (int) ((total - len) % TAIL_SIZE);
+            int first = Math.min(len, TAIL_SIZE - pos);
+            System.arraycopy(b, off, tail, pos, first);
+            System.arraycopy(b, off + first, tail, 0, len - first);
+        }
+
+        byte[] getTail() {
+            int size = (int) Math.min(total, TAIL_SIZE);
+            byte[] result = new byte[size];
+            long start = total - size;
+            for (int i = 0; i < size; i++) {
+                result[i] = tail[(int) ((start + i) % TAIL_SIZE)];
+            }
+            return result;
+        }
+    }
+}
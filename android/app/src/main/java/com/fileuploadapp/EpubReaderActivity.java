@@ -1,7 +1,9 @@
 package com.fileuploadapp;
 
 import android.app.Activity;
+import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.webkit.WebView;
 import android.webkit.WebSettings;
 import android.webkit.WebViewClient;
@@ -10,6 +12,7 @@ import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.view.Gravity;
+import android.view.ViewTreeObserver;
 import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.LayerDrawable;
@@ -23,10 +26,12 @@ import android.speech.tts.UtteranceProgressListener;
 import java.util.Locale;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -37,6 +42,8 @@ public class EpubReaderActivity extends Activity implements TextToSpeech.OnInitL
     private TextToSpeech tts;
     private ImageButton playButton;
     private boolean isSpeaking = false;
+    private ViewTreeObserver.OnGlobalLayoutListener pendingRelayoutListener;
+    private final ExecutorService bookLoader = Executors.newSingleThreadExecutor();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -271,6 +278,53 @@ public class EpubReaderActivity extends Activity implements TextToSpeech.OnInitL
         }
     }
     
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Rotation and dark mode are handled in place (see AndroidManifest.xml), so the
+        // parsed book, WebView and TTS session all survive; only a relayout is needed.
+        super.onConfigurationChanged(newConfig);
+        measureRelayout(SystemClock.uptimeMillis());
+    }
+    
+    private void measureRelayout(long startMs) {
+        // Log the time from the configuration change until the WebView has drawn the new layout.
+        // Only one measurement is pending at a time; a newer change replaces the older one.
+        cancelRelayoutMeasurement();
+        
+        ViewTreeObserver.OnGlobalLayoutListener listener = new ViewTreeObserver.OnGlobalLayoutListener() {
+            @Override
+            public void onGlobalLayout() {
+                if (pendingRelayoutListener != this) return;
+                cancelRelayoutMeasurement();
+                webView.postVisualStateCallback(startMs, new WebView.VisualStateCallback() {
+                    @Override
+                    public void onComplete(long requestId) {
+                        android.util.Log.d("EpubReader", "Relayout after configuration change took "
+                            + (SystemClock.uptimeMillis() - requestId) + " ms");
+                    }
+                });
+            }
+        };
+        pendingRelayoutListener = listener;
+        webView.getViewTreeObserver().addOnGlobalLayoutListener(listener);
+        
+        // Animation callbacks run before layout within a frame, so the second one runs after
+        // the next frame's layout pass. If that pass did not lay anything out (e.g. a uiMode
+        // change with no size change), drop the measurement rather than time an unrelated layout.
+        webView.postOnAnimation(() -> webView.postOnAnimation(() -> {
+            if (pendingRelayoutListener == listener) {
+                cancelRelayoutMeasurement();
+            }
+        }));
+    }
+    
+    private void cancelRelayoutMeasurement() {
+        if (pendingRelayoutListener != null) {
+            webView.getViewTreeObserver().removeOnGlobalLayoutListener(pendingRelayoutListener);
+            pendingRelayoutListener = null;
+        }
+    }
+    
     @Override
     protected void onPause() {
         super.onPause();
@@ -281,6 +335,7 @@ public class EpubReaderActivity extends Activity implements TextToSpeech.OnInitL
     protected void onDestroy() {
         super.onDestroy();
         saveScrollPosition();
+        bookLoader.shutdownNow();
         if (tts != null) {
             tts.stop();
             tts.shutdown();
@@ -378,40 +433,69 @@ public class EpubReaderActivity extends Activity implements TextToSpeech.OnInitL
     }
     
     private void loadEpub(String path) {
-        try {
-            File file = new File(path);
-            InputStream inputStream = new FileInputStream(file);
-            ZipInputStream zipInputStream = new ZipInputStream(inputStream);
-            
-            ZipEntry entry;
-            List<String> htmlFiles = new ArrayList<>();
-            
-            while ((entry = zipInputStream.getNextEntry()) != null) {
-                String name = entry.getName();
-                if (name.endsWith(".html") || name.endsWith(".xhtml") || name.endsWith(".htm")) {
-                    byte[] buffer = new byte[2048];
-                    int len;
-                    StringBuilder content = new StringBuilder();
-                    while ((len = zipInputStream.read(buffer)) > 0) {
-                        content.append(new String(buffer, 0, len, "UTF-8"));
+        // Decrypting and inflating a whole book takes a while, so keep it off the UI thread
+        bookLoader.execute(() -> {
+            try {
+                List<String> htmlFiles = readChapters(new File(path));
+                runOnUiThread(() -> {
+                    if (isDestroyed()) return;
+                    if (htmlFiles.isEmpty()) {
+                        webView.loadData("<h1>No content found</h1><p>This EPUB file appears to be empty or corrupted.</p>", "text/html", "UTF-8");
+                    } else {
+                        displayAllContent(htmlFiles);
                     }
-                    htmlFiles.add(content.toString());
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+                runOnUiThread(() -> {
+                    if (isDestroyed()) return;
+                    webView.loadData("<h1>Error loading EPUB</h1><p>" + e.getMessage() + "</p>", "text/html", "UTF-8");
+                });
+            }
+        });
+    }
+    
+    private List<String> readChapters(File file) throws IOException {
+        // Books indexed at import time already know their reading order
+        EpubIndex index = EpubIndex.load(file);
+        if (index != null) {
+            return readSpine(file, index);
+        }
+        
+        InputStream inputStream = EncryptedLibraryStore.openInputStream(file);
+        ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        
+        ZipEntry entry;
+        List<String> htmlFiles = new ArrayList<>();
+        
+        while ((entry = zipInputStream.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (name.endsWith(".html") || name.endsWith(".xhtml") || name.endsWith(".htm")) {
+                byte[] buffer = new byte[2048];
+                int len;
+                StringBuilder content = new StringBuilder();
+                while ((len = zipInputStream.read(buffer)) > 0) {
+                    content.append(new String(buffer, 0, len, "UTF-8"));
                 }
-                zipInputStream.closeEntry();
+                htmlFiles.add(content.toString());
             }
-            
-            zipInputStream.close();
-            
-            if (htmlFiles.isEmpty()) {
-                webView.loadData("<h1>No content found</h1><p>This EPUB file appears to be empty or corrupted.</p>", "text/html", "UTF-8");
-            } else {
-                displayAllContent(htmlFiles);
+            zipInputStream.closeEntry();
+        }
+        
+        zipInputStream.close();
+        return htmlFiles;
+    }
+    
+    private List<String> readSpine(File file, EpubIndex index) throws IOException {
+        List<String> htmlFiles = new ArrayList<>();
+        try (EpubBook book = EpubBook.open(file, index)) {
+            // Inflate and sanitize chapters on several cores; results stay in spine order
+            List<ChapterPipeline.Chapter> chapters = book.processAll(ChapterPipeline.SANITIZE);
+            for (ChapterPipeline.Chapter chapter : chapters) {
+                htmlFiles.add(chapter.html);
             }
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-            webView.loadData("<h1>Error loading EPUB</h1><p>" + e.getMessage() + "</p>", "text/html", "UTF-8");
         }
+        return htmlFiles;
     }
     
     private void displayAllContent(List<String> htmlFiles) {
@@ -453,6 +537,25 @@ public class EpubReaderActivity extends Activity implements TextToSpeech.OnInitL
             "blockquote { margin: 1em 0; padding-left: 1em; border-left: 3px solid #ccc; font-style: italic; }" +
             "a { color: #007AFF; text-decoration: none; }" +
             "</style>" +
+            // Keep the reading anchor as a fraction of the document so a relayout
+            // (rotation, dark mode) lands on the same passage instead of the same pixel offset
+            "<script>" +
+            "(function() { " +
+            "  var anchor = 0; " +
+            "  var restoring = false; " +
+            "  function maxScroll() { return document.documentElement.scrollHeight - window.innerHeight; } " +
+            "  window.addEventListener('scroll', function() { " +
+            "    if (restoring) return; " +
+            "    var max = maxScroll(); " +
+            "    anchor = max > 0 ? window.scrollY / max : 0; " +
+            "  }); " +
+            "  window.addEventListener('resize', function() { " +
+            "    restoring = true; " +
+            "    window.scrollTo(0, Math.round(anchor * maxScroll())); " +
+            "    requestAnimationFrame(function() { restoring = false; }); " +
+            "  }); " +
+            "})();" +
+            "</script>" +
             "</head><body>" + allContent.toString() + "</body></html>";
         
         // Set WebViewClient to restore scroll position after content loads
@@ -3,12 +3,30 @@ package com.fileuploadapp;
 import android.app.Activity;
 import android.content.Intent;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class EpubReaderModule extends ReactContextBaseJavaModule {
+    // Books opened from JS, keyed by the handle returned from openBook
+    private final Map<Integer, EpubBook> openBooks = new HashMap<>();
+    private int nextHandle = 1;
+    // Whole-book passes take seconds, so they run here instead of on the native-modules thread
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    // Opening may index the whole book; kept apart from worker so it never waits behind a pass
+    private final ExecutorService opener = Executors.newSingleThreadExecutor();
 
     public EpubReaderModule(ReactApplicationContext reactContext) {
         super(reactContext);
@@ -39,4 +57,175 @@ public class EpubReaderModule extends ReactContextBaseJavaModule {
             promise.reject("E_EPUB_OPEN_ERROR", "Failed to open EPUB: " + e.getMessage());
         }
     }
+
+    @ReactMethod
+    public void openBook(String filePath, Promise promise) {
+        opener.execute(() -> {
+            try {
+                EpubBook book = EpubBook.open(new File(filePath.replace("file://", "")));
+                int handle;
+                synchronized (openBooks) {
+                    if (opener.isShutdown()) {
+                        // The bridge went away while the book was opening
+                        closeQuietly(book);
+                        promise.reject("E_EPUB_OPEN_ERROR", "Reader was shut down");
+                        return;
+                    }
+                    handle = nextHandle++;
+                    openBooks.put(handle, book);
+                }
+                promise.resolve(handle);
+            } catch (Exception e) {
+                promise.reject("E_EPUB_OPEN_ERROR", "Failed to open EPUB: " + e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getSpine(int handle, Promise promise) {
+        EpubBook book = getBook(handle, promise);
+        if (book == null) return;
+
+        EpubIndex index = book.getIndex();
+        List<EpubIndex.Chapter> spine = book.getSpine();
+        WritableArray chapters = Arguments.createArray();
+        for (int i = 0; i < spine.size(); i++) {
+            EpubIndex.Chapter chapter = spine.get(i);
+            WritableMap item = Arguments.createMap();
+            item.putInt("index", i);
+            item.putString("href", chapter.href);
+            item.putDouble("textOffset", chapter.textOffset);
+            item.putDouble("textLength", chapter.textLength);
+            chapters.pushMap(item);
+        }
+
+        WritableMap result = Arguments.createMap();
+        result.putString("title", index.title);
+        result.putString("author", index.author);
+        result.putDouble("totalTextLength", index.getTotalTextLength());
+        result.putArray("chapters", chapters);
+        promise.resolve(result);
+    }
+
+    @ReactMethod
+    public void getChapter(int handle, int index, Promise promise) {
+        EpubBook book = getBook(handle, promise);
+        if (book == null) return;
+
+        try {
+            promise.resolve(book.getChapter(index));
+        } catch (Exception e) {
+            promise.reject("E_EPUB_READ_ERROR", "Failed to read chapter: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getChapterText(int handle, int index, Promise promise) {
+        EpubBook book = getBook(handle, promise);
+        if (book == null) return;
+
+        try {
+            promise.resolve(book.getChapterText(index));
+        } catch (Exception e) {
+            promise.reject("E_EPUB_READ_ERROR", "Failed to read chapter: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getBookStats(int handle, Promise promise) {
+        EpubBook book = getBook(handle, promise);
+        if (book == null) return;
+
+        worker.execute(() -> computeBookStats(book, promise));
+    }
+
+    private void computeBookStats(EpubBook book, Promise promise) {
+        try {
+            List<ChapterPipeline.Chapter> chapters = book.processAll(ChapterPipeline.ALL_STEPS);
+
+            WritableArray chapterStats = Arguments.createArray();
+            int totalWords = 0;
+            double totalMinutes = 0;
+            for (ChapterPipeline.Chapter chapter : chapters) {
+                WritableMap item = Arguments.createMap();
+                item.putInt("index", chapter.index);
+                item.putInt("wordCount", chapter.wordCount);
+                item.putInt("sentenceCount", chapter.sentences.size());
+                item.putDouble("readingMinutes", chapter.readingMinutes);
+                chapterStats.pushMap(item);
+                totalWords += chapter.wordCount;
+                totalMinutes += chapter.readingMinutes;
+            }
+
+            WritableMap result = Arguments.createMap();
+            result.putInt("wordCount", totalWords);
+            result.putDouble("readingMinutes", totalMinutes);
+            result.putArray("chapters", chapterStats);
+            promise.resolve(result);
+        } catch (Exception e) {
+            promise.reject("E_EPUB_READ_ERROR", "Failed to process book: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void benchmarkPipeline(int chapterCount, Promise promise) {
+        worker.execute(() -> {
+            try {
+                Map<String, Double> timings =
+                    ChapterPipelineBenchmark.run(getReactApplicationContext().getCacheDir(), chapterCount);
+                WritableMap results = Arguments.createMap();
+                for (Map.Entry<String, Double> result : timings.entrySet()) {
+                    results.putDouble(result.getKey(), result.getValue());
+                }
+                promise.resolve(results);
+            } catch (Exception e) {
+                promise.reject("E_BENCHMARK_ERROR", "Benchmark failed: " + e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void closeBook(int handle, Promise promise) {
+        EpubBook book;
+        synchronized (openBooks) {
+            book = openBooks.remove(handle);
+        }
+        // A stats pass still running on this book finishes first; see EpubBook.close()
+        closeQuietly(book);
+        promise.resolve(book != null);
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        worker.shutdownNow();
+        // Release any books JS did not close before the bridge went away
+        synchronized (openBooks) {
+            opener.shutdownNow();
+            for (EpubBook book : openBooks.values()) {
+                closeQuietly(book);
+            }
+            openBooks.clear();
+        }
+    }
+
+    private EpubBook getBook(int handle, Promise promise) {
+        EpubBook book;
+        synchronized (openBooks) {
+            book = openBooks.get(handle);
+        }
+        if (book == null) {
+            promise.reject("E_INVALID_HANDLE", "No open book for handle " + handle);
+        }
+        return book;
+    }
+
+    private static void closeQuietly(EpubBook book) {
+        if (book == null) return;
+        try {
+            book.close();
+        } catch (IOException e) {
+            android.util.Log.w("EpubReader", "Failed to close book", e);
+        }
+    }
 }
@@ -0,0 +1,170 @@
+package com.fileuploadapp;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.ProxyFileDescriptorCallback;
+import android.os.storage.StorageManager;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Exposes library files to in-app viewers (e.g. the PDF renderer) as content:// URIs.
+ * Encrypted files are served through a proxy file descriptor that decrypts only the
+ * byte ranges the reader asks for, so no plaintext copy is written to disk.
+ */
+public class LibraryFileProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.fileuploadapp.library";
+
+    private static HandlerThread callbackThread;
+
+    public static Uri getUri(File file) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(file.getName()).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Library files are read-only");
+        }
+        File file = resolve(uri);
+        if (!EncryptedLibraryStore.isEncrypted(file)) {
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        // Without proxy descriptors (API < 26) the only option would be decrypting the
+        // whole file to disk, which would leave plaintext behind, so refuse instead
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            throw new FileNotFoundException("Encrypted files cannot be opened on this Android version");
+        }
+        try {
+            return openDecryptingDescriptor(file);
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failed to open " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        File file;
+        try {
+            file = resolve(uri);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        long size = file.length();
+        try (SeekableByteChannel channel = EncryptedLibraryStore.openChannel(file)) {
+            size = channel.size();
+        } catch (IOException e) {
+            android.util.Log.w("LibraryFileProvider", "Could not read size of " + file.getName(), e);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE});
+        cursor.addRow(new Object[]{file.getName(), size});
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        String name = uri.getLastPathSegment();
+        if (name == null) return null;
+        if (name.toLowerCase().endsWith(".pdf")) return "application/pdf";
+        if (name.toLowerCase().endsWith(".epub")) return "application/epub+zip";
+        return "application/octet-stream";
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Library files are read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Library files are read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Library files are read-only");
+    }
+
+    private File resolve(Uri uri) throws FileNotFoundException {
+        String name = uri.getLastPathSegment();
+        File filesDir = getContext().getFilesDir();
+        File file = new File(filesDir, name != null ? name : "");
+        // Only serve files that sit directly in the library directory
+        if (name == null || !filesDir.equals(file.getParentFile()) || !file.isFile()) {
+            throw new FileNotFoundException("No library file for " + uri);
+        }
+        return file;
+    }
+
+    private ParcelFileDescriptor openDecryptingDescriptor(File file) throws IOException {
+        SeekableByteChannel channel = EncryptedLibraryStore.openChannel(file);
+        StorageManager storageManager = getContext().getSystemService(StorageManager.class);
+        return storageManager.openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY,
+            new ProxyFileDescriptorCallback() {
+                @Override
+                public long onGetSize() throws ErrnoException {
+                    try {
+                        return channel.size();
+                    } catch (IOException e) {
+                        throw new ErrnoException("onGetSize", OsConstants.EIO);
+                    }
+                }
+
+                @Override
+                public int onRead(long offset, int size, byte[] data) throws ErrnoException {
+                    try {
+                        ByteBuffer buffer = ByteBuffer.wrap(data, 0, size);
+                        synchronized (channel) {
+                            channel.position(offset);
+                            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                                // Keep reading until the request is filled or the file ends
+                            }
+                        }
+                        return buffer.position();
+                    } catch (IOException e) {
+                        throw new ErrnoException("onRead", OsConstants.EIO);
+                    }
+                }
+
+                @Override
+                public void onRelease() {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        android.util.Log.w("LibraryFileProvider", "Failed to close " + file.getName(), e);
+                    }
+                }
+            },
+            new Handler(getCallbackLooper()));
+    }
+
+    private static synchronized android.os.Looper getCallbackLooper() {
+        if (callbackThread == null) {
+            callbackThread = new HandlerThread("LibraryFileProvider");
+            callbackThread.start();
+        }
+        return callbackThread.getLooper();
+    }
+}
@@ -0,0 +1,247 @@
+package com.fileuploadapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import javax.crypto.spec.SecretKeySpec;
+
+public class ChannelZipFileTest {
+    private File file;
+    private byte[] binary;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("archive", ".zip");
+        binary = new byte[200_000];
+        new Random(1).nextBytes(binary);
+
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.setComment("archive comment");
+
+            // ZipOutputStream needs the size and CRC of stored entries up front
+            byte[] mimetype = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
+            CRC32 crc = new CRC32();
+            crc.update(mimetype);
+            ZipEntry stored = new ZipEntry("mimetype");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(mimetype.length);
+            stored.setCompressedSize(mimetype.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(mimetype);
+            zip.closeEntry();
+
+            for (int i = 0; i < 5; i++) {
+                zip.putNextEntry(new ZipEntry("OEBPS/chapter" + i + ".xhtml"));
+                zip.write(chapter(i).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("OEBPS/image.bin"));
+            zip.write(binary);
+            zip.closeEntry();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void listsEntriesInArchiveOrder() throws IOException {
+        try (ChannelZipFile zip = open()) {
+            List<String> names = new ArrayList<>();
+            for (ChannelZipFile.Entry entry : zip.getEntries()) {
+                names.add(entry.name);
+            }
+            assertEquals("mimetype", names.get(0));
+            assertEquals("OEBPS/image.bin", names.get(names.size() - 1));
+            assertEquals(7, names.size());
+            assertNull(zip.getEntry("missing"));
+        }
+    }
+
+    @Test
+    public void readsStoredAndDeflatedEntries() throws IOException {
+        try (ChannelZipFile zip = open()) {
+            ChannelZipFile.Entry mimetype = zip.getEntry("mimetype");
+            assertEquals(ZipEntry.STORED, mimetype.method);
+            assertEquals("application/epub+zip", new String(read(zip.getInputStream(mimetype)), StandardCharsets.US_ASCII));
+
+            ChannelZipFile.Entry image = zip.getEntry("OEBPS/image.bin");
+            assertEquals(ZipEntry.DEFLATED, image.method);
+            assertEquals(binary.length, image.size);
+            assertArrayEquals(binary, read(zip.getInputStream(image)));
+        }
+    }
+
+    @Test
+    public void reusesCallerInflaterAcrossEntries() throws IOException {
+        Inflater inflater = new Inflater(true);
+        try (ChannelZipFile zip = open()) {
+            for (int i = 4; i >= 0; i--) {
+                inflater.reset();
+                byte[] content = read(zip.getInputStream(zip.getEntry("OEBPS/chapter" + i + ".xhtml"), inflater));
+                assertEquals(chapter(i), new String(content, StandardCharsets.UTF_8));
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Test
+    public void usesKnownCentralDirectoryLocation() throws IOException {
+        long centralDirectoryOffset;
+        long centralDirectorySize;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // End record: 22 bytes plus the comment at the very end of the file
+            long end = raf.length() - 22 - "archive comment".length();
+            raf.seek(end + 12);
+            centralDirectorySize = Integer.reverseBytes(raf.readInt()) & 0xFFFFFFFFL;
+            centralDirectoryOffset = Integer.reverseBytes(raf.readInt()) & 0xFFFFFFFFL;
+        }
+
+        try (ChannelZipFile zip = new ChannelZipFile(
+                FileChannel.open(file.toPath(), StandardOpenOption.READ), centralDirectoryOffset, centralDirectorySize)) {
+            assertEquals(7, zip.getEntries().size());
+            assertNotNull(zip.getEntry("OEBPS/chapter3.xhtml"));
+        }
+    }
+
+    @Test
+    public void readsThroughDecryptingChannel() throws IOException {
+        EncryptedLibraryStore.MasterKeySource masterKey = () -> new SecretKeySpec(new byte[32], "AES");
+        File encrypted = File.createTempFile("archive", ".enc");
+        try {
+            try (OutputStream out = EncryptedLibraryStore.openEncryptingStream(encrypted, masterKey)) {
+                Files.copy(file.toPath(), out);
+            }
+            try (ChannelZipFile zip = new ChannelZipFile(EncryptedLibraryStore.openChannel(encrypted, masterKey))) {
+                assertArrayEquals(binary, read(zip.getInputStream(zip.getEntry("OEBPS/image.bin"))));
+                assertEquals(chapter(2), new String(
+                    read(zip.getInputStream(zip.getEntry("OEBPS/chapter2.xhtml"))), StandardCharsets.UTF_8));
+            }
+        } finally {
+            encrypted.delete();
+        }
+    }
+
+    @Test
+    public void rejectsFileWithoutCentralDirectory() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        try {
+            open().close();
+            fail("Expected a ZipException");
+        } catch (ZipException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void rejectsCorruptLocalHeader() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.write(0);
+        }
+        try (ChannelZipFile zip = open()) {
+            zip.getInputStream(zip.getEntry("mimetype"));
+            fail("Expected a ZipException");
+        } catch (ZipException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void rejectsRecordOverrunningCentralDirectory() throws IOException {
+        // Give the last entry a name running past the end of the directory
+        patchCentralHeader("OEBPS/image.bin", 28, 2, 0xFFFF);
+        assertRejected();
+    }
+
+    @Test
+    public void rejectsZip64Entries() throws IOException {
+        patchCentralHeader("OEBPS/chapter1.xhtml", 24, 4, 0xFFFFFFFF);
+        assertRejected();
+    }
+
+    /**
+     * Overwrites a little-endian field of the named entry's central directory record.
+     */
+    private void patchCentralHeader(String name, int field, int length, int value) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int pos = data.length - 46; pos >= 0; pos--) {
+            if (data[pos] == 'P' && data[pos + 1] == 'K' && data[pos + 2] == 1 && data[pos + 3] == 2
+                    && new String(data, pos + 46, nameBytes.length, StandardCharsets.UTF_8).equals(name)) {
+                for (int i = 0; i < length; i++) {
+                    data[pos + field + i] = (byte) (value >>> (8 * i));
+                }
+                Files.write(file.toPath(), data);
+                return;
+            }
+        }
+        throw new AssertionError("No central directory record for " + name);
+    }
+
+    private void assertRejected() throws IOException {
+        try {
+            open().close();
+            fail("Expected a ZipException");
+        } catch (ZipException expected) {
+            // Expected
+        }
+    }
+
+    private ChannelZipFile open() throws IOException {
+        return new ChannelZipFile(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    private static String chapter(int i) {
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int p = 0; p < 50; p++) {
+            html.append("<p>Chapter ").append(i).append(", paragraph ").append(p).append(".</p>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = stream.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.fileuploadapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.crypto.spec.SecretKeySpec;
+
+public class ChapterPipelineTest {
+    private static final int CHAPTERS = 120;
+    private static final int THREADS = 4;
+
+    private final EncryptedLibraryStore.MasterKeySource masterKey =
+        () -> new SecretKeySpec(new byte[32], "AES");
+    private final List<String> hrefs = new ArrayList<>();
+    private final ForkJoinPool pool = new ForkJoinPool(THREADS);
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("book", ".epub");
+        Random random = new Random(3);
+        try (ZipOutputStream zip = new ZipOutputStream(EncryptedLibraryStore.openEncryptingStream(file, masterKey))) {
+            for (int i = 0; i < CHAPTERS; i++) {
+                String href = "OEBPS/chapter" + i + ".xhtml";
+                StringBuilder html = new StringBuilder("<html><head><title>x</title></head><body><p>Chapter ")
+                    .append(i).append(".</p><p>");
+                // Random letters compress poorly, so the book spans many segments
+                for (int c = 0; c < 20_000; c++) {
+                    html.append(c % 8 == 7 ? ' ' : (char) ('a' + random.nextInt(26)));
+                }
+                html.append("</p></body></html>");
+                zip.putNextEntry(new ZipEntry(href));
+                zip.write(html.toString().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+                hrefs.add(href);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        file.delete();
+    }
+
+    @Test
+    public void returnsChaptersInSpineOrder() throws IOException {
+        try (ChannelZipFile zip = new ChannelZipFile(EncryptedLibraryStore.openChannel(file, masterKey))) {
+            List<ChapterPipeline.Chapter> chapters = ChapterPipeline.run(pool, zip, hrefs, ChapterPipeline.ALL_STEPS);
+
+            assertEquals(CHAPTERS, chapters.size());
+            for (int i = 0; i < CHAPTERS; i++) {
+                ChapterPipeline.Chapter chapter = chapters.get(i);
+                assertEquals(i, chapter.index);
+                assertEquals(hrefs.get(i), chapter.href);
+                assertTrue(chapter.text.startsWith("Chapter " + i + "."));
+                assertTrue(chapter.wordCount > 0);
+            }
+        }
+    }
+
+    @Test
+    public void segmentsEmptyTextIntoNoSentences() {
+        ChapterPipeline.Chapter chapter = new ChapterPipeline.Chapter(0, "empty.xhtml", "<html><body></body></html>");
+        ChapterPipeline.ALL_STEPS.apply(chapter);
+
+        assertEquals(0, chapter.sentences.size());
+        assertEquals(0, chapter.wordCount);
+    }
+
+    @Test
+    public void segmentsTextAtSentenceEnds() {
+        ChapterPipeline.Chapter chapter = new ChapterPipeline.Chapter(0, "c.xhtml", "<p>One. Two? Three!</p>");
+        ChapterPipeline.ALL_STEPS.apply(chapter);
+
+        assertEquals(Arrays.asList("One.", "Two?", "Three!"), chapter.sentences);
+    }
+
+    @Test
+    public void ignoresImplausibleStoredSize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("big.xhtml"));
+            zip.write("<p>Not that big.</p>".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        byte[] archive = bytes.toByteArray();
+        // Claim an uncompressed size of almost 2 GiB in the central directory
+        ByteBuffer directory = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+        for (int pos = archive.length - 4; pos >= 0; pos--) {
+            if (directory.getInt(pos) == 0x02014b50) {
+                directory.putInt(pos + 24, Integer.MAX_VALUE - 8);
+                break;
+            }
+        }
+        File big = File.createTempFile("big", ".epub");
+        try {
+            try (FileOutputStream out = new FileOutputStream(big)) {
+                out.write(archive);
+            }
+            try (ChannelZipFile zip = new ChannelZipFile(new RandomAccessFile(big, "r").getChannel())) {
+                List<ChapterPipeline.Chapter> chapters =
+                    ChapterPipeline.run(pool, zip, Collections.singletonList("big.xhtml"), ChapterPipeline.ALL_STEPS);
+                assertEquals("Not that big.", chapters.get(0).text);
+            }
+        } finally {
+            big.delete();
+        }
+    }
+
+    @Test
+    public void decryptsEachSegmentAboutOnce() throws IOException {
+        try (ChannelZipFile zip = new ChannelZipFile(EncryptedLibraryStore.openChannel(file, masterKey))) {
+            long segments = (zip.getChannel().size() + EncryptedLibraryStore.SEGMENT_SIZE - 1)
+                / EncryptedLibraryStore.SEGMENT_SIZE;
+            long before = EncryptedLibraryStore.segmentsDecrypted.get();
+
+            ChapterPipeline.run(pool, zip, hrefs, ChapterPipeline.ALL_STEPS);
+
+            // A segment is only decrypted again when two workers miss it at the same time
+            long decrypts = EncryptedLibraryStore.segmentsDecrypted.get() - before;
+            assertTrue("decrypted " + decrypts + " times for " + segments + " segments",
+                decrypts <= segments + THREADS);
+        }
+    }
+}
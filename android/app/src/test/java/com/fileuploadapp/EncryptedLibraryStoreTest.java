@@ -0,0 +1,210 @@
+package com.fileuploadapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+public class EncryptedLibraryStoreTest {
+    private static final int SEGMENT = EncryptedLibraryStore.SEGMENT_SIZE;
+    private static final int TAG = 16;
+
+    private final EncryptedLibraryStore.MasterKeySource masterKey =
+        () -> new SecretKeySpec(new byte[32], "AES");
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("library", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void roundTripsAcrossSegmentBoundaries() throws IOException {
+        int[] sizes = {0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 2 * SEGMENT, 3 * SEGMENT + 17};
+        for (int size : sizes) {
+            byte[] plain = randomBytes(size, size);
+            encrypt(plain);
+
+            assertTrue(EncryptedLibraryStore.isEncrypted(file));
+            assertArrayEquals("size " + size, plain, readAll());
+        }
+    }
+
+    @Test
+    public void segmentCountMatchesPlaintextSize() throws IOException {
+        // A plaintext that fills its segments exactly still ends with a full last segment,
+        // and an empty plaintext is a single empty last segment
+        long headerSize = encryptedSize(0) - TAG;
+        assertEquals(headerSize + SEGMENT + TAG, encryptedSize(SEGMENT));
+        assertEquals(headerSize + SEGMENT + TAG + 1 + TAG, encryptedSize(SEGMENT + 1));
+        assertEquals(headerSize + 2 * (SEGMENT + TAG), encryptedSize(2 * SEGMENT));
+    }
+
+    @Test
+    public void readsRandomRanges() throws IOException {
+        byte[] plain = randomBytes(3 * SEGMENT + 1234, 1);
+        encrypt(plain);
+
+        Random random = new Random(2);
+        try (SeekableByteChannel channel = EncryptedLibraryStore.openChannel(file, masterKey)) {
+            assertEquals(plain.length, channel.size());
+            for (int i = 0; i < 200; i++) {
+                int offset = random.nextInt(plain.length);
+                int length = Math.min(plain.length - offset, 1 + random.nextInt(2 * SEGMENT));
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                channel.position(offset);
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                    // Fill the buffer
+                }
+                assertArrayEquals(Arrays.copyOfRange(plain, offset, offset + length), buffer.array());
+            }
+
+            channel.position(plain.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void rejectsFileTruncatedAtSegmentBoundary() throws IOException {
+        encrypt(randomBytes(2 * SEGMENT + 100, 3));
+
+        // Drop the last segment: the new final segment was not sealed as the last one
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - (100 + TAG));
+        }
+        assertReadFails();
+    }
+
+    @Test
+    public void rejectsFileTruncatedMidSegment() throws IOException {
+        encrypt(randomBytes(SEGMENT + 100, 4));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        assertReadFails();
+    }
+
+    @Test
+    public void rejectsReorderedSegments() throws IOException {
+        encrypt(randomBytes(3 * SEGMENT, 5));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long headerSize = raf.length() - 3L * (SEGMENT + TAG);
+            byte[] first = new byte[SEGMENT + TAG];
+            byte[] second = new byte[SEGMENT + TAG];
+            raf.seek(headerSize);
+            raf.readFully(first);
+            raf.readFully(second);
+            raf.seek(headerSize);
+            raf.write(second);
+            raf.write(first);
+        }
+        assertReadFails();
+    }
+
+    @Test
+    public void rejectsModifiedCiphertext() throws IOException {
+        encrypt(randomBytes(SEGMENT / 2, 6));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 20);
+            int b = raf.read();
+            raf.seek(raf.length() - 20);
+            raf.write(b ^ 1);
+        }
+        assertReadFails();
+    }
+
+    @Test
+    public void rejectsWrongMasterKey() throws IOException {
+        encrypt(randomBytes(100, 7));
+
+        byte[] otherKey = new byte[32];
+        otherKey[0] = 1;
+        try {
+            EncryptedLibraryStore.openChannel(file, () -> new SecretKeySpec(otherKey, "AES")).close();
+            fail("Expected the data key not to unwrap");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void readsPlainFilesAsTheyAre() throws IOException {
+        byte[] plain = randomBytes(1000, 8);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(plain);
+        }
+
+        assertFalse(EncryptedLibraryStore.isEncrypted(file));
+        assertArrayEquals(plain, readAll());
+    }
+
+    private void encrypt(byte[] plain) throws IOException {
+        try (OutputStream out = EncryptedLibraryStore.openEncryptingStream(file, masterKey)) {
+            // Uneven writes so segment sealing does not line up with the caller's buffers
+            int offset = 0;
+            int step = 1;
+            while (offset < plain.length) {
+                int length = Math.min(step, plain.length - offset);
+                out.write(plain, offset, length);
+                offset += length;
+                step = step * 3 + 1;
+            }
+        }
+    }
+
+    private long encryptedSize(int plainSize) throws IOException {
+        encrypt(new byte[plainSize]);
+        return file.length();
+    }
+
+    private byte[] readAll() throws IOException {
+        try (SeekableByteChannel channel = EncryptedLibraryStore.openChannel(file, masterKey)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // Fill the buffer
+            }
+            assertFalse(buffer.hasRemaining());
+            return buffer.array();
+        }
+    }
+
+    private void assertReadFails() {
+        try {
+            readAll();
+            fail("Expected authentication to fail");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
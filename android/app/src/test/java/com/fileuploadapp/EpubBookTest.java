@@ -0,0 +1,132 @@
+package com.fileuploadapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class EpubBookTest {
+    private static final int CHAPTERS = 10;
+
+    private File file;
+    private EpubIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("book", ".epub");
+        index = new EpubIndex();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < CHAPTERS; i++) {
+                String href = "OEBPS/chapter" + i + ".xhtml";
+                zip.putNextEntry(new ZipEntry(href));
+                zip.write(("<html><body><p>Chapter " + i + ".</p></body></html>").getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+                index.spine.add(new EpubIndex.Chapter(href, 0, 0));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void closeWaitsForRunningPass() throws Exception {
+        EpubBook book = EpubBook.open(file, index);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<ChapterPipeline.Chapter, ChapterPipeline.Chapter> blockingStep = chapter -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ChapterPipeline.EXTRACT_TEXT.apply(chapter);
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<ChapterPipeline.Chapter>> pass = executor.submit(() -> book.processAll(blockingStep));
+            started.await(10, TimeUnit.SECONDS);
+            book.close();
+            release.countDown();
+
+            List<ChapterPipeline.Chapter> chapters = pass.get(10, TimeUnit.SECONDS);
+            assertEquals(CHAPTERS, chapters.size());
+            for (int i = 0; i < CHAPTERS; i++) {
+                assertEquals("Chapter " + i + ".", chapters.get(i).text);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertClosed(book);
+    }
+
+    @Test
+    public void closedBookRejectsReads() throws IOException {
+        EpubBook book = EpubBook.open(file, index);
+        assertEquals("<p>Chapter 3.</p>", book.getChapter(3));
+        book.close();
+
+        assertClosed(book);
+    }
+
+    @Test
+    public void inlinesStylesheetsAndKeepsExternalLinks() throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            put(zip, "OEBPS/text/styled.xhtml", "<html><head>"
+                + "<link rel='stylesheet' type='text/css' href='../css/book.css'/>"
+                + "<link href=\"http://example.com/remote.css\" rel=\"stylesheet\"/></head>"
+                + "<body><p>Styled.</p><img src='http://example.com/a.png'/><img src='missing.png'/></body></html>");
+            put(zip, "OEBPS/css/book.css", "p { margin: 0; }");
+        }
+        index.spine.clear();
+        index.spine.add(new EpubIndex.Chapter("OEBPS/text/styled.xhtml", 0, 0));
+
+        try (EpubBook book = EpubBook.open(file, index)) {
+            assertEquals("<style>p { margin: 0; }</style>"
+                    + "<p>Styled.</p><img src='http://example.com/a.png'/><img src='missing.png'/>",
+                book.getChapter(0));
+        }
+    }
+
+    private static void put(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static void assertClosed(EpubBook book) {
+        try {
+            book.getChapter(0);
+            fail("Expected the book to be closed");
+        } catch (IOException expected) {
+            // Expected
+        }
+        try {
+            book.processAll(ChapterPipeline.EXTRACT_TEXT);
+            fail("Expected the book to be closed");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+}
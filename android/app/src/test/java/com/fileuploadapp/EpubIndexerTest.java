@@ -0,0 +1,297 @@
+package com.fileuploadapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+public class EpubIndexerTest {
+    private static final EpubIndexer.Platform PLATFORM = new EpubIndexer.Platform() {
+        @Override
+        public XmlPullParser newPullParser() {
+            return new KXmlParser();
+        }
+
+        @Override
+        public String decodeUri(String uri) {
+            // Same as Uri.decode: percent-escapes only, "+" stays a plus
+            try {
+                return URLDecoder.decode(uri.replace("+", "%2B"), "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
+    private static final String CONTAINER =
+        "<?xml version='1.0'?><container version='1.0' xmlns='urn:oasis:names:tc:opendocument:xmlns:container'>"
+            + "<rootfiles><rootfile full-path='OEBPS/content.opf' media-type='application/oebps-package+xml'/>"
+            + "</rootfiles></container>";
+
+    private static final String OPF =
+        "<?xml version='1.0'?><package xmlns='http://www.idpf.org/2007/opf' version='3.0'>"
+            + "<metadata xmlns:dc='http://purl.org/dc/elements/1.1/'>"
+            + "<dc:title> A Title </dc:title><dc:creator>An Author</dc:creator></metadata>"
+            + "<manifest>"
+            + "<item id='c1' href='text/chapter%201.xhtml' media-type='application/xhtml+xml'/>"
+            + "<item id='c2' href='text/../text/c+2.xhtml#start' media-type='application/xhtml+xml'/>"
+            + "<item id='img' href='images/cover.png' media-type='image/png' properties='cover-image'/>"
+            + "</manifest>"
+            + "<spine><itemref idref='c1'/><itemref idref='img'/><itemref idref='c2'/></spine></package>";
+
+    @Test
+    public void indexesBookWhileCopyingIt() throws IOException {
+        byte[] epub = book(OPF, true);
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        EpubIndex index = EpubIndexer.copyAndIndex(new ByteArrayInputStream(epub), copy, PLATFORM);
+
+        assertArrayEquals(epub, copy.toByteArray());
+        assertEquals("A Title", index.title);
+        assertEquals("An Author", index.author);
+        assertEquals("OEBPS/images/cover.png", index.coverHref);
+        assertEquals(6, index.entries.size());
+
+        // The image in the spine is not a chapter
+        assertEquals(2, index.spine.size());
+        EpubIndex.Chapter first = index.spine.get(0);
+        EpubIndex.Chapter second = index.spine.get(1);
+        assertEquals("OEBPS/text/chapter 1.xhtml", first.href);
+        assertEquals("OEBPS/text/c+2.xhtml", second.href);
+        assertEquals(0, first.textOffset);
+        assertEquals("First chapter.".length(), first.textLength);
+        assertEquals(first.textLength, second.textOffset);
+        assertEquals("Second chapter.".length(), second.textLength);
+
+        // No archive comment, so the end record follows the central directory directly
+        assertEquals(epub.length - 22, index.centralDirectoryOffset + index.centralDirectorySize);
+    }
+
+    @Test
+    public void resolvesHrefsToEntryNames() {
+        assertEquals("OEBPS/text/a.xhtml", EpubIndexer.resolve("OEBPS/", "text/a.xhtml", PLATFORM));
+        assertEquals("a b.xhtml", EpubIndexer.resolve("OEBPS/", "../a%20b.xhtml", PLATFORM));
+        assertEquals("OEBPS/c+d.xhtml", EpubIndexer.resolve("OEBPS/", "./c+d.xhtml#part", PLATFORM));
+        assertEquals("e.xhtml", EpubIndexer.resolve("OEBPS/", "../../e.xhtml", PLATFORM));
+        assertEquals("f%.xhtml", EpubIndexer.resolve("", "f%25.xhtml", PLATFORM));
+    }
+
+    @Test
+    public void teeKeepsLastBytesForAnyReadPattern() throws IOException {
+        int tailSize = EpubIndexer.TAIL_SIZE;
+        for (int size : new int[]{0, 100, tailSize - 1, tailSize, tailSize + 1, 3 * tailSize + 123}) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+            try (EpubIndexer.TeeInputStream tee = new EpubIndexer.TeeInputStream(new ByteArrayInputStream(data), copy)) {
+                // Mix single bytes, small reads, reads larger than the tail and skips
+                int[] reads = {1, 7, tailSize + 5, 4096, 1};
+                byte[] buffer = new byte[tailSize + 5];
+                int step = 0;
+                while (true) {
+                    int len = reads[step++ % reads.length];
+                    if (step % 7 == 0) {
+                        if (tee.skip(len) == 0) break;
+                    } else if (len == 1) {
+                        if (tee.read() < 0) break;
+                    } else if (tee.read(buffer, 0, len) < 0) {
+                        break;
+                    }
+                }
+
+                byte[] expectedTail = Arrays.copyOfRange(data, Math.max(0, size - tailSize), size);
+                assertArrayEquals("size " + size, expectedTail, tee.getTail());
+            }
+            assertArrayEquals("size " + size, data, copy.toByteArray());
+        }
+    }
+
+    @Test
+    public void findsEndRecordBehindComment() throws IOException {
+        byte[] zip = zip(1, "a comment");
+        EpubIndex index = new EpubIndex();
+        index.entries.add(new EpubIndex.Entry("a", 0, 0, 0));
+
+        EpubIndexer.readEndOfCentralDirectory(zip, index);
+
+        assertEquals(zip.length - 22 - "a comment".length(), index.centralDirectoryOffset + index.centralDirectorySize);
+    }
+
+    @Test
+    public void rejectsEndRecordWithWrongEntryCount() throws IOException {
+        byte[] zip = zip(2, null);
+        EpubIndex index = new EpubIndex();
+        index.entries.add(new EpubIndex.Entry("a", 0, 0, 0));
+
+        try {
+            EpubIndexer.readEndOfCentralDirectory(zip, index);
+            fail("Expected a ZipException");
+        } catch (ZipException expected) {
+            assertTrue(expected.getMessage().contains("2 entries"));
+        }
+    }
+
+    @Test
+    public void rejectsTailWithoutEndRecord() throws IOException {
+        byte[] zip = zip(1, null);
+        try {
+            EpubIndexer.readEndOfCentralDirectory(Arrays.copyOf(zip, zip.length - 10), new EpubIndex());
+            fail("Expected a ZipException");
+        } catch (ZipException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedBooks() throws IOException {
+        byte[] epub = book(OPF, true);
+        // Cut inside an entry, inside the central directory and inside the end record
+        for (int length : new int[]{epub.length / 3, epub.length - 40, epub.length - 10}) {
+            assertRejected(Arrays.copyOf(epub, length));
+        }
+    }
+
+    @Test
+    public void rejectsCorruptEntryData() throws IOException {
+        byte[] epub = book(OPF, true);
+        // Flip a byte of the first chapter's compressed data
+        int at = indexOf(epub, "OEBPS/text/chapter 1.xhtml".getBytes(StandardCharsets.UTF_8))
+            + "OEBPS/text/chapter 1.xhtml".length() + 4;
+        epub[at] ^= 0x55;
+        assertRejected(epub);
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotEpubs() throws IOException {
+        byte[] random = new byte[5000];
+        new Random(9).nextBytes(random);
+        assertRejected(random);
+        assertRejected(new byte[0]);
+        assertRejected(zip(1, null));
+        // Spine item missing from the archive
+        assertRejected(book(OPF, false));
+        // No chapters in the spine
+        assertRejected(book(OPF.replaceAll("<itemref[^>]*>", ""), true));
+        // Malformed package document
+        assertRejected(book("<package><manifest>", true));
+    }
+
+    @Test
+    public void reportsSourceFailureAsIoError() throws IOException {
+        byte[] epub = book(OPF, true);
+        // Serves the first half of the book, then fails like a dropped connection
+        InputStream source = new FilterInputStream(new ByteArrayInputStream(epub, 0, epub.length / 2)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n < 0) throw new IOException("connection lost");
+                return n;
+            }
+        };
+        assertIoErrorNotFormatError(source, null, "connection lost");
+    }
+
+    @Test
+    public void reportsDestinationFailureAsIoError() throws IOException {
+        OutputStream full = new OutputStream() {
+            private int written;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                written += len;
+                if (written > 1000) throw new IOException("no space left");
+            }
+        };
+        assertIoErrorNotFormatError(new ByteArrayInputStream(book(OPF, true)), full, "no space left");
+    }
+
+    private static void assertRejected(byte[] data) throws IOException {
+        try {
+            EpubIndexer.copyAndIndex(new ByteArrayInputStream(data), new ByteArrayOutputStream(), PLATFORM);
+            fail("Expected a ZipException");
+        } catch (ZipException expected) {
+            // Expected
+        }
+    }
+
+    private static void assertIoErrorNotFormatError(InputStream in, OutputStream out, String message) {
+        try {
+            EpubIndexer.copyAndIndex(in, out, PLATFORM);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertFalse("reported as a format error: " + e, e instanceof ZipException);
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static byte[] book(String opf, boolean withSecondChapter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            put(zip, "mimetype", "application/epub+zip");
+            put(zip, "META-INF/container.xml", CONTAINER);
+            put(zip, "OEBPS/content.opf", opf);
+            put(zip, "OEBPS/text/chapter 1.xhtml",
+                "<html><head><title>One</title></head><body><p>First chapter.</p></body></html>");
+            if (withSecondChapter) {
+                put(zip, "OEBPS/text/c+2.xhtml",
+                    "<html><head><title>Two</title></head><body><p>Second   chapter.</p></body></html>");
+            }
+            put(zip, "OEBPS/images/cover.png", "not really a png");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] zip(int entries, String comment) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            if (comment != null) zip.setComment(comment);
+            for (int i = 0; i < entries; i++) {
+                put(zip, "entry" + i, "content " + i);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void put(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        throw new AssertionError("pattern not found");
+    }
+}
@@ -6,16 +6,79 @@ import {
   Text,
   Alert,
   ActivityIndicator,
+  NativeModules,
 } from 'react-native';
 import { WebView } from 'react-native-webview';
 import Tts from 'react-native-tts';
-import RNFS from 'react-native-fs';
+
+const { EpubReader } = NativeModules;
+
+// Android TTS rejects utterances above ~4000 characters
+const MAX_UTTERANCE_LENGTH = 3000;
 
 interface EpubReaderWithTTSProps {
   epubPath: string;
   onClose: () => void;
 }
 
+interface SpineItem {
+  index: number;
+  href: string;
+  textOffset: number;
+  textLength: number;
+}
+
+const splitIntoUtterances = (text: string): string[] => {
+  const chunks: string[] = [];
+  let start = 0;
+  while (start < text.length) {
+    let end = Math.min(start + MAX_UTTERANCE_LENGTH, text.length);
+
+    // Try to break at sentence end
+    if (end < text.length) {
+      const breakPoint = Math.max(
+        text.lastIndexOf('. ', end),
+        text.lastIndexOf('? ', end),
+        text.lastIndexOf('! ', end),
+      );
+      if (breakPoint > start) {
+        end = breakPoint + 2;
+      }
+    }
+
+    chunks.push(text.substring(start, end));
+    start = end;
+  }
+  return chunks;
+};
+
+const wrapChapter = (body: string) => `
+  <!DOCTYPE html>
+  <html>
+    <head>
+      <meta name="viewport" content="width=device-width, initial-scale=1.0">
+      <style>
+        * { margin: 0; padding: 0; box-sizing: border-box; }
+        body {
+          font-family: Georgia, 'Times New Roman', serif;
+          line-height: 1.8;
+          padding: 20px;
+          padding-bottom: 100px;
+          font-size: 18px;
+          background: #faf8f5;
+          color: #333;
+          max-width: 800px;
+          margin: 0 auto;
+        }
+        p { margin-bottom: 1em; text-align: justify; }
+        h1, h2, h3 { margin-top: 1.5em; margin-bottom: 0.5em; }
+        img { max-width: 100%; height: auto; }
+      </style>
+    </head>
+    <body id="content">${body}</body>
+  </html>
+`;
+
 const EpubReaderWithTTS: React.FC<EpubReaderWithTTSProps> = ({
   epubPath,
   onClose,
@@ -25,14 +88,57 @@ const EpubReaderWithTTS: React.FC<EpubReaderWithTTSProps> = ({
   const [isSpeaking, setIsSpeaking] = useState(false);
   const [speechRate, setSpeechRate] = useState(0.5);
   const [currentText, setCurrentText] = useState('');
+  const [spine, setSpine] = useState<SpineItem[]>([]);
+  const [chapterIndex, setChapterIndex] = useState(0);
   const webViewRef = useRef<WebView>(null);
 
+  // Native book handle and TTS progress; refs so TTS event listeners see current values
+  const handleRef = useRef<number | null>(null);
+  const chapterIndexRef = useRef(0);
+  const chapterCountRef = useRef(0);
+  const pendingUtterancesRef = useRef<string[]>([]);
+  const readingAloudRef = useRef(false);
+
   useEffect(() => {
-    loadEpub();
+    let cancelled = false;
+
+    const openBook = async () => {
+      try {
+        const handle: number = await EpubReader.openBook(epubPath);
+        if (cancelled) {
+          EpubReader.closeBook(handle);
+          return;
+        }
+        handleRef.current = handle;
+
+        const book = await EpubReader.getSpine(handle);
+        if (cancelled) {
+          return;
+        }
+        chapterCountRef.current = book.chapters.length;
+        setSpine(book.chapters);
+        await showChapter(0);
+      } catch (error) {
+        console.error('Error loading EPUB:', error);
+        Alert.alert('Error', 'Failed to load EPUB file');
+      } finally {
+        if (!cancelled) {
+          setIsLoading(false);
+        }
+      }
+    };
+
+    openBook();
     initializeTTS();
 
     return () => {
+      cancelled = true;
+      readingAloudRef.current = false;
       Tts.stop();
+      if (handleRef.current !== null) {
+        EpubReader.closeBook(handleRef.current);
+        handleRef.current = null;
+      }
     };
   }, []);
 
@@ -49,7 +155,7 @@ const EpubReaderWithTTS: React.FC<EpubReaderWithTTSProps> = ({
       });
       Tts.addEventListener('tts-finish', () => {
         console.log('✅ TTS Finished');
-        setIsSpeaking(false);
+        speakNextUtterance();
       });
       Tts.addEventListener('tts-cancel', () => {
         console.log('⏹️ TTS Cancelled');
@@ -62,194 +168,97 @@ const EpubReaderWithTTS: React.FC<EpubReaderWithTTSProps> = ({
     }
   };
 
-  const loadEpub = async () => {
-    try {
-      const cleanPath = epubPath.replace('file://', '');
-      
-      // Read EPUB file (it's a ZIP)
-      const exists = await RNFS.exists(cleanPath);
-      if (!exists) {
-        Alert.alert('Error', 'EPUB file not found');
-        return;
-      }
-
-      // For now, we'll use a simple approach - extract text from the EPUB
-      // In production, you'd want to properly parse the EPUB structure
-      const content = await extractEpubContent(cleanPath);
-      setHtmlContent(content);
-      setIsLoading(false);
-    } catch (error) {
-      console.error('Error loading EPUB:', error);
-      Alert.alert('Error', 'Failed to load EPUB file');
-      setIsLoading(false);
+  const showChapter = async (index: number) => {
+    if (handleRef.current === null) {
+      return;
     }
+    const body: string = await EpubReader.getChapter(handleRef.current, index);
+    chapterIndexRef.current = index;
+    setChapterIndex(index);
+    setHtmlContent(wrapChapter(body));
   };
 
-  const extractEpubContent = async (path: string): Promise<string> => {
+  const speakChapter = async (index: number) => {
+    if (handleRef.current === null) {
+      return;
+    }
     try {
-      console.log('📚 Reading EPUB file from:', path);
-      
-      // EPUB files are ZIP archives - we need to use the native module
-      // For now, use react-native-zip-archive or similar
-      // Since we don't have a ZIP library, let's use the native reader's content
-      
-      // Read the file as base64 and let WebView handle it
-      const fileContent = await RNFS.readFile(path, 'base64');
-      console.log('📦 File read, size:', fileContent.length);
-      
-      // For now, return a message asking to use native reader
-      // We need to properly implement ZIP extraction
-      return `
-        <!DOCTYPE html>
-        <html>
-          <head>
-            <meta name="viewport" content="width=device-width, initial-scale=1.0">
-            <style>
-              * { margin: 0; padding: 0; box-sizing: border-box; }
-              body {
-                font-family: Georgia, 'Times New Roman', serif;
-                line-height: 1.8;
-                padding: 20px;
-                padding-bottom: 100px;
-                font-size: 18px;
-                background: #faf8f5;
-                color: #333;
-                max-width: 800px;
-                margin: 0 auto;
-              }
-              p { margin-bottom: 1em; text-align: justify; }
-              h1, h2, h3 { margin-top: 1.5em; margin-bottom: 0.5em; }
-              .tts-highlight {
-                background-color: #FFD700;
-                padding: 2px 4px;
-                border-radius: 3px;
-              }
-              .info-box {
-                background: #e3f2fd;
-                border-left: 4px solid #2196f3;
-                padding: 16px;
-                margin: 20px 0;
-                border-radius: 4px;
-              }
-            </style>
-          </head>
-          <body id="content">
-            <h1>EPUB Reader with TTS</h1>
-            <div class="info-box">
-              <p><strong>Note:</strong> Full EPUB parsing requires additional libraries.</p>
-              <p>The native reader displays EPUB content correctly.</p>
-            </div>
-            <h2>Sample Text for TTS Demo</h2>
-            <p>This is a demonstration of the Text-to-Speech feature. In a production app, this would display the actual EPUB content extracted from the file.</p>
-            <p>The EPUB file format is essentially a ZIP archive containing HTML, CSS, and images. To properly display EPUB content in React Native, we would need to:</p>
-            <ul>
-              <li>Extract the ZIP archive</li>
-              <li>Parse the content.opf file to find the reading order</li>
-              <li>Load and combine all HTML chapters</li>
-              <li>Apply the book's CSS styling</li>
-            </ul>
-            <p>For now, you can use the native EPUB reader (without TTS) which already implements all of this functionality.</p>
-            <p>Try tapping the play button below to hear this text read aloud!</p>
-          </body>
-        </html>
-      `;
+      const text: string = await EpubReader.getChapterText(handleRef.current, index);
+      pendingUtterancesRef.current = splitIntoUtterances(text);
+      readingAloudRef.current = true;
+      speakNextUtterance();
     } catch (error) {
-      console.error('❌ Error reading EPUB:', error);
-      return `
-        <!DOCTYPE html>
-        <html>
-          <body>
-            <h1>Error</h1>
-            <p>Failed to load EPUB file: ${error}</p>
-          </body>
-        </html>
-      `;
+      console.error('❌ TTS error:', error);
+      Alert.alert('Error', 'Failed to start text-to-speech');
     }
   };
 
-  const extractTextFromWebView = () => {
-    webViewRef.current?.injectJavaScript(`
-      (function() {
-        try {
-          const body = document.getElementById('content');
-          const text = body ? body.innerText : '';
-          window.ReactNativeWebView.postMessage(JSON.stringify({
-            type: 'text',
-            content: text
-          }));
-        } catch (error) {
-          window.ReactNativeWebView.postMessage(JSON.stringify({
-            type: 'error',
-            message: error.toString()
-          }));
-        }
-      })();
-      true;
-    `);
-  };
-
-  const handleWebViewMessage = (event: any) => {
-    try {
-      const data = JSON.parse(event.nativeEvent.data);
-      console.log('📱 WebView Message:', data.type);
-      
-      if (data.type === 'text') {
-        console.log('📖 Text to speak:', data.content.substring(0, 100) + '...');
-        speakText(data.content);
-      } else if (data.type === 'error') {
-        console.error('❌ WebView Error:', data.message);
-      }
-    } catch (error) {
-      console.error('❌ Error parsing WebView message:', error);
+  // Speaks the current chapter one utterance at a time, then moves on to the next chapter
+  const speakNextUtterance = async () => {
+    if (!readingAloudRef.current) {
+      return;
     }
-  };
 
-  const speakText = async (text: string) => {
-    if (!text || text.trim().length === 0) {
-      console.warn('⚠️ No text to speak');
-      Alert.alert('No Content', 'No text available to read');
+    const next = pendingUtterancesRef.current.shift();
+    if (next !== undefined) {
+      setCurrentText(next);
+      await Tts.speak(next);
       return;
     }
 
-    try {
-      console.log('🔊 Starting TTS...');
-      console.log('📝 Text length:', text.length, 'characters');
-      console.log('⚡ Speech rate:', speechRate);
-      
-      // Store the text being spoken
-      setCurrentText(text);
-      await Tts.speak(text);
-      
-      console.log('✅ TTS started successfully');
-    } catch (error) {
-      console.error('❌ TTS error:', error);
-      Alert.alert('Error', 'Failed to start text-to-speech');
+    const nextChapter = chapterIndexRef.current + 1;
+    if (nextChapter < chapterCountRef.current) {
+      await showChapter(nextChapter);
+      await speakChapter(nextChapter);
+    } else {
+      readingAloudRef.current = false;
+      setIsSpeaking(false);
+      setCurrentText('');
     }
   };
 
+  const stopSpeech = () => {
+    readingAloudRef.current = false;
+    pendingUtterancesRef.current = [];
+    Tts.stop();
+    setIsSpeaking(false);
+    setCurrentText('');
+  };
+
   const toggleSpeech = () => {
     if (isSpeaking) {
       console.log('⏸️ Stopping TTS...');
-      Tts.stop();
-      setIsSpeaking(false);
-      setCurrentText('');
+      stopSpeech();
     } else {
-      console.log('▶️ Starting TTS - Extracting text from WebView...');
-      extractTextFromWebView();
+      console.log('▶️ Starting TTS - chapter', chapterIndexRef.current);
+      speakChapter(chapterIndexRef.current);
     }
   };
 
+  const goToChapter = (index: number) => {
+    if (index < 0 || index >= spine.length) {
+      return;
+    }
+    const wasSpeaking = readingAloudRef.current;
+    stopSpeech();
+    showChapter(index).then(() => {
+      if (wasSpeaking) {
+        speakChapter(index);
+      }
+    });
+  };
+
   const adjustSpeed = (delta: number) => {
     const newRate = Math.max(0.3, Math.min(1.5, speechRate + delta));
     console.log('⚡ Speed changed:', speechRate.toFixed(1), '→', newRate.toFixed(1));
     setSpeechRate(newRate);
     Tts.setDefaultRate(newRate);
     
-    // If currently speaking, restart with new rate
+    // If currently speaking, restart the chapter with new rate
     if (isSpeaking) {
       console.log('🔄 Restarting TTS with new speed...');
-      Tts.stop();
-      setTimeout(() => extractTextFromWebView(), 100);
+      stopSpeech();
+      setTimeout(() => speakChapter(chapterIndexRef.current), 100);
     }
   };
 
@@ -274,10 +283,30 @@ const EpubReaderWithTTS: React.FC<EpubReaderWithTTSProps> = ({
         ref={webViewRef}
         source={{ html: htmlContent }}
         style={styles.webView}
-        onMessage={handleWebViewMessage}
         javaScriptEnabled={true}
       />
 
+      {/* Chapter Navigation */}
+      <View style={styles.chapterNav}>
+        <TouchableOpacity
+          style={styles.chapterButton}
+          disabled={chapterIndex === 0}
+          onPress={() => goToChapter(chapterIndex - 1)}>
+          <Text style={styles.chapterButtonText}>‹ Prev</Text>
+        </TouchableOpacity>
+
+        <Text style={styles.chapterText}>
+          {spine.length > 0 ? `${chapterIndex + 1} / ${spine.length}` : ''}
+        </Text>
+
+        <TouchableOpacity
+          style={styles.chapterButton}
+          disabled={chapterIndex >= spine.length - 1}
+          onPress={() => goToChapter(chapterIndex + 1)}>
+          <Text style={styles.chapterButtonText}>Next ›</Text>
+        </TouchableOpacity>
+      </View>
+
       {/* Current Text Display */}
       {isSpeaking && currentText && (
         <View style={styles.currentTextContainer}>
@@ -355,6 +384,29 @@ const styles = StyleSheet.create({
   webView: {
     flex: 1,
   },
+  chapterNav: {
+    flexDirection: 'row',
+    alignItems: 'center',
+    justifyContent: 'space-between',
+    paddingHorizontal: 16,
+    paddingVertical: 8,
+    backgroundColor: '#fff',
+    borderTopWidth: 1,
+    borderTopColor: '#ddd',
+  },
+  chapterButton: {
+    paddingHorizontal: 12,
+    paddingVertical: 6,
+  },
+  chapterButtonText: {
+    fontSize: 16,
+    color: '#007AFF',
+    fontWeight: '600',
+  },
+  chapterText: {
+    fontSize: 14,
+    color: '#666',
+  },
   ttsControls: {
     flexDirection: 'row',
     alignItems: 'center',